@@ -0,0 +1,336 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The agent/topic dependency graph of the running TopicManager.
+ *
+ * createFromTopics() builds it once and then listens to TopicManager, so agents coming and
+ * going only add or remove single edges. The analysis (cycles, topological order, depth,
+ * fan-in/fan-out) is computed on first use after a change and cached until the next change.
+ */
+@SuppressWarnings("serial") // Live view of the running graph, never serialized
+public class Graph extends ArrayList<Node> implements TopologyListener {
+
+    private final Map<Topic, Node> topicNodes = new HashMap<>();
+    private final Map<Agent, Node> agentNodes = new IdentityHashMap<>();
+    private Analysis analysis; // null when the graph changed since the last analysis
+
+    // Builds the graph from the current topics and keeps it up to date from then on
+    public synchronized void createFromTopics() {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        tm.removeTopologyListener(this);
+        clear();
+        topicNodes.clear();
+        agentNodes.clear();
+        analysis = null;
+        for (Topic t : tm.getTopics()) {
+            Node tn = topicNode(t);
+            for (Agent a : t.getSubscribers()) {
+                tn.addEdge(agentNode(a));
+            }
+            for (Agent a : t.getPublishers()) {
+                agentNode(a).addEdge(tn);
+            }
+        }
+        tm.addTopologyListener(this);
+    }
+
+    // Stops following TopicManager changes
+    public void detach() {
+        TopicManagerSingleton.get().removeTopologyListener(this);
+    }
+
+    public synchronized Node getNode(Topic t) {
+        return topicNodes.get(t);
+    }
+
+    public synchronized Node getNode(Agent a) {
+        return agentNodes.get(a);
+    }
+
+    // ---- incremental updates ----
+
+    @Override
+    public synchronized void subscribed(Topic topic, Agent agent) {
+        topicNode(topic).addEdge(agentNode(agent));
+        analysis = null;
+    }
+
+    @Override
+    public synchronized void unsubscribed(Topic topic, Agent agent) {
+        Node an = agentNodes.get(agent);
+        Node tn = topicNodes.get(topic);
+        if (an != null && tn != null) {
+            tn.removeEdge(an);
+            dropIfDetached(agent, an);
+            analysis = null;
+        }
+    }
+
+    @Override
+    public synchronized void publisherAdded(Topic topic, Agent agent) {
+        agentNode(agent).addEdge(topicNode(topic));
+        analysis = null;
+    }
+
+    @Override
+    public synchronized void publisherRemoved(Topic topic, Agent agent) {
+        Node an = agentNodes.get(agent);
+        Node tn = topicNodes.get(topic);
+        if (an != null && tn != null) {
+            an.removeEdge(tn);
+            dropIfDetached(agent, an);
+            analysis = null;
+        }
+    }
+
+    private Node topicNode(Topic t) {
+        return topicNodes.computeIfAbsent(t, k -> {
+            Node n = new Node("T" + k.name);
+            n.setMsg(k.getLastMessage());
+            add(n);
+            return n;
+        });
+    }
+
+    private Node agentNode(Agent a) {
+        return agentNodes.computeIfAbsent(a, k -> {
+            Node n = new Node("A" + k.getName());
+            add(n);
+            return n;
+        });
+    }
+
+    // An agent that neither publishes nor subscribes anywhere has left the graph
+    private void dropIfDetached(Agent agent, Node an) {
+        if (!an.getEdges().isEmpty()) {
+            return;
+        }
+        for (Node tn : topicNodes.values()) {
+            if (tn.getEdges().contains(an)) {
+                return;
+            }
+        }
+        agentNodes.remove(agent);
+        remove(an);
+    }
+
+    // ---- analysis ----
+
+    public boolean hasCycles() {
+        return !analysis().cycles.isEmpty();
+    }
+
+    // Every feedback loop, as the set of nodes that can reach each other
+    public List<List<Node>> getCycles() {
+        return analysis().cycles;
+    }
+
+    // Nodes ordered so that every edge points forward; the members of a cycle are kept together
+    public List<Node> topologicalOrder() {
+        return analysis().order;
+    }
+
+    // Longest path, in edges, from a node without inputs to the given node
+    public int depthOf(Node n) {
+        Integer d = analysis().depth.get(n);
+        return d == null ? -1 : d;
+    }
+
+    public int getMaxDepth() {
+        return analysis().maxDepth;
+    }
+
+    // The longest chain in the graph - the first place to look for end-to-end latency
+    public List<Node> getCriticalPath() {
+        return analysis().criticalPath;
+    }
+
+    public synchronized int fanOut(Node n) {
+        return n.getEdges().size();
+    }
+
+    public int fanIn(Node n) {
+        Integer in = analysis().fanIn.get(n);
+        return in == null ? 0 : in;
+    }
+
+    public int getMaxFanIn() {
+        return analysis().maxFanIn;
+    }
+
+    public int getMaxFanOut() {
+        return analysis().maxFanOut;
+    }
+
+    public double getAverageFanOut() {
+        return analysis().avgFanOut;
+    }
+
+    private synchronized Analysis analysis() {
+        if (analysis == null) {
+            analysis = new Analysis(new ArrayList<>(this));
+        }
+        return analysis;
+    }
+
+    /**
+     * One consistent analysis of the graph. Strongly connected components are found with an
+     * iterative Tarjan pass; the component DAG then gives topological order and depths.
+     */
+    private static final class Analysis {
+        final List<List<Node>> cycles = new ArrayList<>();
+        final List<Node> order = new ArrayList<>();
+        final Map<Node, Integer> depth = new HashMap<>();
+        final Map<Node, Integer> fanIn = new HashMap<>();
+        List<Node> criticalPath = Collections.emptyList();
+        int maxDepth = 0;
+        int maxFanIn = 0;
+        int maxFanOut = 0;
+        double avgFanOut = 0;
+
+        Analysis(List<Node> nodes) {
+            int n = nodes.size();
+            Map<Node, Integer> index = new HashMap<>();
+            for (int i = 0; i < n; i++) {
+                index.put(nodes.get(i), i);
+            }
+            int[][] adj = new int[n][];
+            int[] inDeg = new int[n];
+            long edges = 0;
+            for (int i = 0; i < n; i++) {
+                List<Node> out = nodes.get(i).getEdges();
+                adj[i] = new int[out.size()];
+                for (int j = 0; j < out.size(); j++) {
+                    int w = index.get(out.get(j));
+                    adj[i][j] = w;
+                    inDeg[w]++;
+                }
+                edges += out.size();
+                maxFanOut = Math.max(maxFanOut, out.size());
+            }
+            for (int i = 0; i < n; i++) {
+                fanIn.put(nodes.get(i), inDeg[i]);
+                maxFanIn = Math.max(maxFanIn, inDeg[i]);
+            }
+            avgFanOut = n == 0 ? 0 : (double) edges / n;
+
+            // Tarjan - components come out sinks first
+            int[] comp = new int[n];
+            List<int[]> comps = tarjan(adj, comp);
+
+            // Reverse to get components in topological order
+            int c = comps.size();
+            int[] compDepth = new int[c];
+            int[] compPrev = new int[c];   // predecessor node on the longest path into the component
+            Arrays.fill(compPrev, -1);
+            for (int k = c - 1; k >= 0; k--) {
+                int[] members = comps.get(k);
+                boolean cyclic = members.length > 1;
+                for (int v : members) {
+                    order.add(nodes.get(v));
+                    for (int w : adj[v]) {
+                        if (w == v) {
+                            cyclic = true;
+                        } else if (comp[w] != comp[v] && compDepth[comp[v]] + 1 > compDepth[comp[w]]) {
+                            compDepth[comp[w]] = compDepth[comp[v]] + 1;
+                            compPrev[comp[w]] = v;
+                        }
+                    }
+                }
+                if (cyclic) {
+                    List<Node> cycle = new ArrayList<>();
+                    for (int v : members) {
+                        cycle.add(nodes.get(v));
+                    }
+                    cycles.add(cycle);
+                }
+            }
+
+            int deepest = -1;
+            for (int v = 0; v < n; v++) {
+                int d = compDepth[comp[v]];
+                depth.put(nodes.get(v), d);
+                if (deepest < 0 || d > maxDepth) {
+                    maxDepth = d;
+                    deepest = v;
+                }
+            }
+            if (deepest >= 0) {
+                List<Node> path = new ArrayList<>();
+                for (int v = deepest; v >= 0; v = compPrev[comp[v]]) {
+                    path.add(nodes.get(v));
+                }
+                Collections.reverse(path);
+                criticalPath = path;
+            }
+        }
+
+        // Iterative Tarjan SCC; fills comp[v] and returns the components, sinks first
+        private static List<int[]> tarjan(int[][] adj, int[] comp) {
+            int n = adj.length;
+            int[] idx = new int[n];
+            int[] low = new int[n];
+            int[] pos = new int[n];       // next edge to look at, per node on the call stack
+            boolean[] onStack = new boolean[n];
+            int[] stack = new int[n];
+            int sp = 0;
+            int[] calls = new int[n];
+            List<int[]> comps = new ArrayList<>();
+            Arrays.fill(idx, -1);
+            int counter = 0;
+
+            for (int root = 0; root < n; root++) {
+                if (idx[root] != -1) {
+                    continue;
+                }
+                int cp = 0;
+                calls[cp++] = root;
+                idx[root] = low[root] = counter++;
+                stack[sp++] = root;
+                onStack[root] = true;
+                while (cp > 0) {
+                    int v = calls[cp - 1];
+                    if (pos[v] < adj[v].length) {
+                        int w = adj[v][pos[v]++];
+                        if (idx[w] == -1) {
+                            idx[w] = low[w] = counter++;
+                            stack[sp++] = w;
+                            onStack[w] = true;
+                            calls[cp++] = w;
+                        } else if (onStack[w]) {
+                            low[v] = Math.min(low[v], idx[w]);
+                        }
+                    } else {
+                        cp--;
+                        if (cp > 0) {
+                            int parent = calls[cp - 1];
+                            low[parent] = Math.min(low[parent], low[v]);
+                        }
+                        if (low[v] == idx[v]) {
+                            int start = sp;
+                            do {
+                                start--;
+                            } while (stack[start] != v);
+                            int[] members = Arrays.copyOfRange(stack, start, sp);
+                            for (int m : members) {
+                                onStack[m] = false;
+                                comp[m] = comps.size();
+                            }
+                            sp = start;
+                            comps.add(members);
+                        }
+                    }
+                }
+            }
+            return comps;
+        }
+    }
+}
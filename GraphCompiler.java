@@ -0,0 +1,213 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Fuses linear chains of built-in agents into single operators.
+ *
+ * A topic is a fusable link when exactly one agent publishes on it, its only subscriber is a
+ * StatelessStage reading it (IncAgent, for example), and it has neither history nor partitions.
+ * For a chain P -> T1 -> S1 -> T2 -> S2 -> T3 the producer P then applies S1 and S2 itself and
+ * publishes straight to T3; T1 and T2 deliver nothing and the stages sit idle. T1 and T2 still
+ * record the intermediate values, so their last message and publish count stay current. Their
+ * stages are unsubscribed while fused, so a Graph built meanwhile shows the chain as cut.
+ *
+ * An intermediate topic is only materialized again when something observes it: subscribing to
+ * it, or removing a member of the chain, unfuses that chain. compile() fuses again.
+ */
+public class GraphCompiler implements TopologyListener {
+
+    // One fused chain: the producer plus the stages folded into it
+    private static final class Chain {
+        final FusableAgent head;
+        final List<Agent> stages = new ArrayList<>();      // stage agents as subscribed (possibly ParallelAgents)
+        final List<Topic> bypassed = new ArrayList<>();    // input topic of each stage
+
+        Chain(FusableAgent head) {
+            this.head = head;
+        }
+    }
+
+    private final List<Chain> chains = new ArrayList<>();
+    private final Map<Topic, Chain> byTopic = new HashMap<>();
+    private final Map<Agent, Chain> byMember = new IdentityHashMap<>();
+    private boolean applying; // set while we change subscriptions ourselves
+
+    /**
+     * Undoes any earlier fusion and fuses every chain found in the current TopicManager.
+     *
+     * @return the number of chains fused
+     */
+    public synchronized int compile() {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        tm.removeTopologyListener(this);
+        unfuseAll();
+
+        // Every fusable producer, keyed by the publisher entry it has on its topics
+        Map<Agent, FusableAgent> producers = new IdentityHashMap<>();
+        for (Topic t : tm.getTopics()) {
+            for (Agent a : t.getPublishers()) {
+                Agent inner = unwrap(a);
+                if (inner instanceof FusableAgent && ((FusableAgent) inner).getOutput() != null) {
+                    producers.put(a, (FusableAgent) inner);
+                }
+            }
+        }
+
+        for (FusableAgent p : producers.values()) {
+            // Stages that can be absorbed from upstream are not chain heads
+            if (p instanceof StatelessStage && link(((StatelessStage) p).getInputTopic()) != null) {
+                continue;
+            }
+            Chain chain = buildChain(p);
+            if (!chain.stages.isEmpty()) {
+                apply(chain);
+            }
+        }
+
+        tm.addTopologyListener(this);
+        return chains.size();
+    }
+
+    // Restores every fused chain and stops watching the graph
+    public synchronized void decompile() {
+        TopicManagerSingleton.get().removeTopologyListener(this);
+        unfuseAll();
+    }
+
+    public synchronized int getFusedChainCount() {
+        return chains.size();
+    }
+
+    // True if the topic is currently skipped by a fused chain
+    public synchronized boolean isBypassed(Topic t) {
+        return byTopic.containsKey(t);
+    }
+
+    private Chain buildChain(FusableAgent head) {
+        Chain chain = new Chain(head);
+        Set<StatelessStage> seen = new HashSet<>();
+        Topic t = head.getOutput().getTopic();
+        Agent stageSub;
+        while ((stageSub = link(t)) != null) {
+            StatelessStage s = (StatelessStage) unwrap(stageSub);
+            if (s == head || !seen.add(s) || s.getOutput() == null) {
+                break; // a loop of stages, or a stage that ends the chain
+            }
+            chain.stages.add(stageSub);
+            chain.bypassed.add(t);
+            t = s.getOutput().getTopic();
+        }
+        return chain;
+    }
+
+    // If the topic is a fusable link, returns its single stage subscriber, otherwise null
+    private static Agent link(Topic t) {
+        if (t == null || t.getHistory() != null || t.getPartitions() != null || t.getPublishers().size() != 1) {
+            return null;
+        }
+        List<Agent> subs = t.getSubscribers();
+        if (subs.size() != 1) {
+            return null;
+        }
+        Agent inner = unwrap(subs.get(0));
+        if (!(inner instanceof StatelessStage) || ((StatelessStage) inner).getInputTopic() != t) {
+            return null;
+        }
+        Agent pub = unwrap(t.getPublishers().get(0));
+        return pub instanceof FusableAgent ? subs.get(0) : null;
+    }
+
+    private void apply(Chain chain) {
+        DoubleUnaryOperator[] stages = new DoubleUnaryOperator[chain.stages.size()];
+        Topic target = null;
+        for (int i = 0; i < stages.length; i++) {
+            StatelessStage s = (StatelessStage) unwrap(chain.stages.get(i));
+            stages[i] = s::apply;
+            target = s.getOutput().getTopic();
+        }
+        applying = true;
+        try {
+            chain.head.getOutput().fuse(stages, chain.bypassed.toArray(new Topic[0]), target);
+            for (int i = 0; i < chain.stages.size(); i++) {
+                chain.bypassed.get(i).unsubscribe(chain.stages.get(i));
+            }
+        } finally {
+            applying = false;
+        }
+        chains.add(chain);
+        for (Topic t : chain.bypassed) {
+            byTopic.put(t, chain);
+        }
+        for (Agent a : chain.stages) {
+            byMember.put(unwrap(a), chain);
+        }
+        byMember.put(chain.head, chain);
+    }
+
+    // The stages are subscribed again before the route is cleared, so every value published
+    // meanwhile still goes through the fused route and none lands on a topic without its stage
+    private void unfuse(Chain chain) {
+        applying = true;
+        try {
+            for (int i = 0; i < chain.stages.size(); i++) {
+                chain.bypassed.get(i).subscribe(chain.stages.get(i));
+            }
+            chain.head.getOutput().unfuse();
+        } finally {
+            applying = false;
+        }
+        chains.remove(chain);
+        byTopic.values().remove(chain);
+        byMember.values().remove(chain);
+    }
+
+    private void unfuseAll() {
+        for (Chain c : new ArrayList<>(chains)) {
+            unfuse(c);
+        }
+    }
+
+    private static Agent unwrap(Agent a) {
+        return a instanceof ParallelAgent ? ((ParallelAgent) a).getAgent() : a;
+    }
+
+    // ---- materialize on demand ----
+
+    @Override
+    public synchronized void subscribed(Topic topic, Agent agent) {
+        Chain c = byTopic.get(topic);
+        if (!applying && c != null) {
+            unfuse(c); // somebody wants to see the intermediate values
+        }
+    }
+
+    @Override
+    public synchronized void unsubscribed(Topic topic, Agent agent) {
+        memberLeft(agent);
+    }
+
+    @Override
+    public void publisherAdded(Topic topic, Agent agent) {
+        subscribed(topic, agent); // a second publisher breaks the single-producer assumption
+    }
+
+    @Override
+    public synchronized void publisherRemoved(Topic topic, Agent agent) {
+        memberLeft(agent);
+    }
+
+    private void memberLeft(Agent agent) {
+        Chain c = byMember.get(unwrap(agent));
+        if (!applying && c != null) {
+            unfuse(c);
+        }
+    }
+}
@@ -4,13 +4,13 @@ import java.util.Random;
 public class MainTrain {
 
     public static void main(String[] args) {
-        int c=Thread.activeCount();
+        int c=GenericConfig.activeThreadCount();
         GenericConfig gc=new GenericConfig();
         gc.setConfFile("empty.conf"); // change to the exact loaction where you put the file.
         gc.create();
 
         // empty file should not create any agents
-        if (Thread.activeCount() != c) {
+        if (GenericConfig.activeThreadCount() != c) {
             System.out.println("your code did not create the right number of threads (-10)");
         }
 
@@ -19,14 +19,14 @@ public class MainTrain {
         gc.create();
 
         // empty file should not create any agents
-        if (Thread.activeCount() != c) {
+        if (GenericConfig.activeThreadCount() != c) {
             System.out.println("your code did not create the right number of threads (-10)");
         }
 
         gc.setConfFile("simple.conf"); // change to the exact loaction where you put the file.
         gc.create();
 
-        if(Thread.activeCount()!=c+2){
+        if(GenericConfig.activeThreadCount()!=c+2){
             System.out.println("the configuration did not create the right number of threads (-10)");
         }
 
@@ -77,7 +77,7 @@ public class MainTrain {
             Thread.sleep(100);
         } catch (InterruptedException e) {}
 
-        if(Thread.activeCount()!=c){
+        if(GenericConfig.activeThreadCount()!=c){
             System.out.println("your code did not close all threads (-10)");
         }
 
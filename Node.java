@@ -1,14 +1,91 @@
 package test;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 
+/**
+ * A vertex of the computation graph - either a topic ("T" + name) or an agent ("A" + name).
+ * Edges point in the direction messages flow: topic -> subscriber, publisher -> topic.
+ */
 public class Node {
     private String name;
     private List<Node> edges;
     private Message msg;
 
+    public Node(String name) {
+        this.name = name;
+        this.edges = new ArrayList<>();
+    }
 
+    public String getName() {
+        return name;
+    }
 
-}
\ No newline at end of file
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public List<Node> getEdges() {
+        return edges;
+    }
+
+    public Message getMsg() {
+        return msg;
+    }
+
+    public void setMsg(Message msg) {
+        this.msg = msg;
+    }
+
+    // Adds an edge to the given node (only once)
+    public void addEdge(Node n) {
+        if (!edges.contains(n)) {
+            edges.add(n);
+        }
+    }
+
+    public void removeEdge(Node n) {
+        edges.remove(n);
+    }
+
+    // True if a cycle can be reached from this node
+    public boolean hasCycles() {
+        // Iterative DFS so long chains do not overflow the stack
+        Set<Node> done = new HashSet<>();
+        Set<Node> onPath = new HashSet<>();
+        Deque<Node> path = new ArrayDeque<>();
+        Deque<Iterator<Node>> its = new ArrayDeque<>();
+        path.push(this);
+        its.push(edges.iterator());
+        onPath.add(this);
+        while (!path.isEmpty()) {
+            Iterator<Node> it = its.peek();
+            if (it.hasNext()) {
+                Node next = it.next();
+                if (onPath.contains(next)) {
+                    return true;
+                }
+                if (done.add(next)) {
+                    path.push(next);
+                    its.push(next.edges.iterator());
+                    onPath.add(next);
+                }
+            } else {
+                onPath.remove(path.pop());
+                its.pop();
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,84 @@
+package test;
+
+import java.util.Arrays;
+
+/**
+ * One agent definition of a config - the class line (class name and arguments) plus the
+ * subscription and publication lines. Two definitions are equal when all of these match,
+ * which is what GenericConfig diffs on a reload.
+ * Identical definitions in one config are told apart by their occurrence number.
+ */
+public final class AgentDef {
+
+    public final String className;
+    public final String[] args;
+    public final String[] subs;
+    public final String[] pubs;
+    public final int occurrence; // 0 for the first copy of an identical definition, 1 for the second...
+    private final int hash;
+
+    public AgentDef(String className, String[] args, String[] subs, String[] pubs, int occurrence) {
+        this.className = className;
+        this.args = args;
+        this.subs = subs;
+        this.pubs = pubs;
+        this.occurrence = occurrence;
+        this.hash = 31 * (31 * (31 * (31 * className.hashCode() + Arrays.hashCode(args))
+                + Arrays.hashCode(subs)) + Arrays.hashCode(pubs)) + occurrence;
+    }
+
+    // Parses the three lines of one agent, e.g. "test.WindowAgent mean count=10", "A", "A_avg"
+    public static AgentDef parse(String classLine, String subsLine, String pubsLine, int occurrence) {
+        String[] cls = tokens(classLine.trim());
+        return new AgentDef(cls[0], cls.length == 1 ? NONE : Arrays.copyOfRange(cls, 1, cls.length),
+                split(subsLine), split(pubsLine), occurrence);
+    }
+
+    private static final String[] NONE = new String[0];
+
+    private static String[] split(String line) {
+        String t = line.trim();
+        if (t.isEmpty()) {
+            return NONE;
+        }
+        return t.indexOf(',') < 0 ? new String[] {t} : t.split(",");
+    }
+
+    // Whitespace-separated words; single-word lines, the common case, skip the regex
+    private static String[] tokens(String line) {
+        if (line.indexOf(' ') < 0 && line.indexOf('\t') < 0) {
+            return new String[] {line};
+        }
+        return line.split("\\s+");
+    }
+
+    // Same definition with another occurrence number
+    public AgentDef withOccurrence(int occurrence) {
+        return new AgentDef(className, args, subs, pubs, occurrence);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AgentDef)) {
+            return false;
+        }
+        AgentDef d = (AgentDef) o;
+        return hash == d.hash && occurrence == d.occurrence && className.equals(d.className)
+                && Arrays.equals(args, d.args) && Arrays.equals(subs, d.subs) && Arrays.equals(pubs, d.pubs);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    // Also the key a checkpoint stores the agent's state under
+    @Override
+    public String toString() {
+        String s = className + " " + String.join(" ", args) + "|" + String.join(",", subs) + "|" + String.join(",", pubs);
+        return occurrence == 0 ? s : s + "#" + occurrence;
+    }
+}
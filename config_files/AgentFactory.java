@@ -0,0 +1,76 @@
+package test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates agents of one class from their config lines.
+ * The class and its constructors are looked up once per class name and kept as method handles,
+ * so creating the 10,000th agent of a class costs a constructor call and nothing more.
+ */
+public final class AgentFactory {
+
+    private static final ConcurrentHashMap<String, AgentFactory> cache = new ConcurrentHashMap<>();
+    private static final MethodType TWO_ARGS = MethodType.methodType(void.class, String[].class, String[].class);
+    private static final MethodType THREE_ARGS = MethodType.methodType(void.class, String[].class, String[].class, String[].class);
+
+    private final Class<?> type;
+    private final MethodHandle plain;    // (String[] subs, String[] pubs), null if missing
+    private final MethodHandle withArgs; // (String[] subs, String[] pubs, String[] args), null if missing
+
+    private AgentFactory(Class<?> type) {
+        this.type = type;
+        this.plain = find(type, TWO_ARGS);
+        this.withArgs = find(type, THREE_ARGS);
+    }
+
+    // The factory of the named class, looked up on first use
+    public static AgentFactory forName(String className) throws ClassNotFoundException {
+        AgentFactory f = cache.get(className);
+        if (f == null) {
+            f = new AgentFactory(Class.forName(className));
+            AgentFactory raced = cache.putIfAbsent(className, f);
+            if (raced != null) {
+                f = raced;
+            }
+        }
+        return f;
+    }
+
+    private static MethodHandle find(Class<?> type, MethodType ctor) {
+        try {
+            return MethodHandles.publicLookup().findConstructor(type, ctor)
+                    .asType(ctor.changeReturnType(Object.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    // Creates one agent; args come from the class line and may be empty
+    public Agent create(String[] subs, String[] pubs, String[] args) throws Exception {
+        MethodHandle h = args.length == 0 ? plain : withArgs;
+        if (h == null) {
+            throw new NoSuchMethodException(type.getName() + " has no public (String[], String[]"
+                    + (args.length == 0 ? "" : ", String[]") + ") constructor");
+        }
+        try {
+            Object agent;
+            if (args.length == 0) {
+                agent = (Object) h.invokeExact(subs, pubs);
+            } else {
+                agent = (Object) h.invokeExact(subs, pubs, args);
+            }
+            return (Agent) agent;
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new RuntimeException(t);
+        }
+    }
+}
@@ -1,74 +1,48 @@
 package test;
 
 import java.util.function.BinaryOperator;
+import java.util.function.DoubleBinaryOperator;
 
 /**
  * A binary operation agent — waits for messages from two topics,
  * applies a math operation, and publishes the result to another topic.
+ * By default the latest value of each input is kept, so every update re-emits once both
+ * are numbers; setJoin switches to zip or time-window pairing.
  */
-public class BinOpAgent implements Agent {
+public class BinOpAgent extends DoubleBinaryAgent {
 
-    private String name;
-    private String inputTopic1;          // First input topic
-    private String inputTopic2;          // Second input topic
-    private String outputTopic;          // Output topic to publish to
-    private BinaryOperator<Double> operation; // The math operation (e.g. +, -, *, /)
-
-    private Message input1 = null;       // Last message from inputTopic1
-    private Message input2 = null;       // Last message from inputTopic2
-
-    // Constructor sets names and connects to the topics
+    // Constructor sets names and connects to the topics.
+    // Adapts a boxed operator; prefer ofDouble, which does not box on every evaluation.
     public BinOpAgent(String name, String inputTopic1, String inputTopic2,
                       String outputTopic, BinaryOperator<Double> operation) {
-        this.name = name;
-        this.inputTopic1 = inputTopic1;
-        this.inputTopic2 = inputTopic2;
-        this.outputTopic = outputTopic;
-        this.operation = operation;
-
-        // Subscribe to both input topics
-        TopicManagerSingleton.get().getTopic(inputTopic1).subscribe(this);
-        TopicManagerSingleton.get().getTopic(inputTopic2).subscribe(this);
-
-        // Register as publisher for the output topic
-        TopicManagerSingleton.get().getTopic(outputTopic).addPublisher(this);
+        this(name, inputTopic1, inputTopic2, outputTopic, adapt(operation));
     }
 
-    @Override
-    public String getName() {
-        return name;
+    private BinOpAgent(String name, String inputTopic1, String inputTopic2,
+                       String outputTopic, DoubleBinaryOperator operation) {
+        super(name, inputTopic1, inputTopic2, outputTopic, operation, TwoInputJoin.latest());
     }
 
-    // Reset internal state (used between runs)
-    @Override
-    public void reset() {
-        input1 = null;
-        input2 = null;
+    // Primitive construction path. A static factory rather than a constructor overload,
+    // because an overload would make existing (x, y) -> ... lambdas ambiguous.
+    public static BinOpAgent ofDouble(String name, String inputTopic1, String inputTopic2,
+                                      String outputTopic, DoubleBinaryOperator operation) {
+        return new BinOpAgent(name, inputTopic1, inputTopic2, outputTopic, operation);
     }
 
-    // Called when a new message arrives on a topic
-    @Override
-    public void callback(String topic, Message msg) {
-        if (topic.equals(inputTopic1)) {
-            input1 = msg;
-        } else if (topic.equals(inputTopic2)) {
-            input2 = msg;
-        }
-
-        // If both messages exist and their asDouble values are not NaN, do the math and publish
-        if (input1 != null && input2 != null &&
-                !Double.isNaN(input1.asDouble) && !Double.isNaN(input2.asDouble)) {
-
-            double result = operation.apply(input1.asDouble, input2.asDouble);
-            TopicManagerSingleton.get().getTopic(outputTopic).publish(new Message(result));
-        }
+    private static DoubleBinaryOperator adapt(BinaryOperator<Double> operation) {
+        return (a, b) -> operation.apply(a, b);
     }
 
-    // Disconnect from topics when closing
+    // Like the message path, pairs with a NaN input produce no result
     @Override
-    public void close() {
-        TopicManagerSingleton.get().getTopic(inputTopic1).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(inputTopic2).unsubscribe(this);
-        TopicManagerSingleton.get().getTopic(outputTopic).removePublisher(this);
+    protected int keepRows(double[] a, double[] b, double[] results, int n) {
+        int kept = 0;
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(a[i]) && !Double.isNaN(b[i])) {
+                results[kept++] = results[i];
+            }
+        }
+        return kept;
     }
 }
@@ -0,0 +1,231 @@
+package test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled form of a config file, for generated graphs with very many agents.
+ *
+ * Layout (big-endian):
+ *   int magic "BCFG", int version, byte mode (0 = none, see MODE_CODES)
+ *   int stringCount, then per string: unsigned short length, UTF-8 bytes
+ *   int classCount, int[classCount] string id of each class name
+ *   int agentCount, then per agent:
+ *     int classId, int occurrence,
+ *     int argCount, int[argCount], int subCount, int[subCount], int pubCount, int[pubCount] (string ids)
+ *
+ * Every topic name, class name and argument is stored once in the string table and referenced
+ * by id, so load() decodes each distinct string exactly once, straight from a MappedByteBuffer,
+ * with no per-line strings or splitting. GenericConfig loads files ending in ".bconf" this way.
+ */
+public final class BinaryConfig {
+
+    public static final String EXTENSION = ".bconf";
+
+    private static final int MAGIC = 0x42434647; // "BCFG"
+    private static final int VERSION = 1;
+
+    // On-disk code of each mode is its index here plus 1. Fixed so that reordering ExecutionMode
+    // does not change the meaning of existing files; new modes are only ever appended.
+    private static final GenericConfig.ExecutionMode[] MODE_CODES = {
+            GenericConfig.ExecutionMode.THREAD_PER_AGENT,
+            GenericConfig.ExecutionMode.WORK_STEALING,
+            GenericConfig.ExecutionMode.VIRTUAL_THREADS,
+            GenericConfig.ExecutionMode.RING_BUFFER,
+    };
+
+    private final GenericConfig.ExecutionMode mode; // from a "#mode=" line, null if none
+    private final List<AgentDef> definitions;
+
+    private BinaryConfig(GenericConfig.ExecutionMode mode, List<AgentDef> definitions) {
+        this.mode = mode;
+        this.definitions = definitions;
+    }
+
+    public GenericConfig.ExecutionMode getMode() {
+        return mode;
+    }
+
+    public List<AgentDef> getDefinitions() {
+        return definitions;
+    }
+
+    // Converts a text config into the binary format
+    public static void compile(String textFile, String binaryFile) throws IOException {
+        GenericConfig.ParsedFile file;
+        try {
+            file = GenericConfig.readConfig(Paths.get(textFile));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage() + " (" + textFile + ")", e);
+        }
+        write(file.mode, file.definitions, binaryFile);
+    }
+
+    public static void write(GenericConfig.ExecutionMode mode, List<AgentDef> defs, String binaryFile) throws IOException {
+        Map<String, Integer> strings = new HashMap<>();
+        List<String> table = new ArrayList<>();
+        Map<String, Integer> classes = new HashMap<>();
+        List<Integer> classTable = new ArrayList<>();
+        for (AgentDef def : defs) {
+            int cls = intern(def.className, strings, table);
+            if (!classes.containsKey(def.className)) {
+                classes.put(def.className, classTable.size());
+                classTable.add(cls);
+            }
+            intern(def.args, strings, table);
+            intern(def.subs, strings, table);
+            intern(def.pubs, strings, table);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(binaryFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(modeCode(mode));
+            out.writeInt(table.size());
+            for (String s : table) {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                if (b.length > 0xFFFF) {
+                    throw new IOException("Name too long for a binary config: " + s.substring(0, 40) + "...");
+                }
+                out.writeShort(b.length);
+                out.write(b);
+            }
+            out.writeInt(classTable.size());
+            for (int id : classTable) {
+                out.writeInt(id);
+            }
+            out.writeInt(defs.size());
+            for (AgentDef def : defs) {
+                out.writeInt(classes.get(def.className));
+                out.writeInt(def.occurrence);
+                writeIds(out, def.args, strings);
+                writeIds(out, def.subs, strings);
+                writeIds(out, def.pubs, strings);
+            }
+        }
+    }
+
+    private static int modeCode(GenericConfig.ExecutionMode mode) throws IOException {
+        if (mode == null) {
+            return 0;
+        }
+        for (int i = 0; i < MODE_CODES.length; i++) {
+            if (MODE_CODES[i] == mode) {
+                return i + 1;
+            }
+        }
+        throw new IOException("No binary config code for execution mode " + mode);
+    }
+
+    private static int intern(String s, Map<String, Integer> strings, List<String> table) {
+        Integer id = strings.get(s);
+        if (id == null) {
+            id = table.size();
+            strings.put(s, id);
+            table.add(s);
+        }
+        return id;
+    }
+
+    private static void intern(String[] names, Map<String, Integer> strings, List<String> table) {
+        for (String s : names) {
+            intern(s, strings, table);
+        }
+    }
+
+    private static void writeIds(DataOutputStream out, String[] names, Map<String, Integer> strings) throws IOException {
+        out.writeInt(names.length);
+        for (String s : names) {
+            out.writeInt(strings.get(s));
+        }
+    }
+
+    // Reads a binary config through a memory mapping of the file
+    public static BinaryConfig load(String binaryFile) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(Paths.get(binaryFile), StandardOpenOption.READ)) {
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        try {
+            return read(buf);
+        } catch (RuntimeException e) {
+            // BufferUnderflowException and bad ids alike mean a truncated or damaged file
+            throw new IOException("Corrupt binary config " + binaryFile + ": " + e, e);
+        }
+    }
+
+    private static BinaryConfig read(ByteBuffer buf) throws IOException {
+        if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+            throw new IOException("Not a binary config file");
+        }
+        int m = buf.get();
+        if (m < 0 || m > MODE_CODES.length) {
+            throw new IOException("Unknown execution mode code " + m);
+        }
+        GenericConfig.ExecutionMode mode = m == 0 ? null : MODE_CODES[m - 1];
+
+        String[] table = new String[buf.getInt()];
+        byte[] scratch = new byte[256];
+        for (int i = 0; i < table.length; i++) {
+            int len = buf.getShort() & 0xFFFF;
+            if (len > scratch.length) {
+                scratch = new byte[Math.max(len, scratch.length * 2)];
+            }
+            buf.get(scratch, 0, len);
+            table[i] = new String(scratch, 0, len, StandardCharsets.UTF_8);
+        }
+        String[] classes = new String[buf.getInt()];
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = table[buf.getInt()];
+        }
+
+        int count = buf.getInt();
+        List<AgentDef> defs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String className = classes[buf.getInt()];
+            int occurrence = buf.getInt();
+            String[] args = names(buf, table);
+            String[] subs = names(buf, table);
+            String[] pubs = names(buf, table);
+            defs.add(new AgentDef(className, args, subs, pubs, occurrence));
+        }
+        return new BinaryConfig(mode, defs);
+    }
+
+    private static final String[] NONE = new String[0];
+
+    private static String[] names(ByteBuffer buf, String[] table) {
+        int n = buf.getInt();
+        if (n == 0) {
+            return NONE;
+        }
+        String[] out = new String[n];
+        for (int i = 0; i < n; i++) {
+            out[i] = table[buf.getInt()];
+        }
+        return out;
+    }
+
+    // Command line converter: BinaryConfig <text config> [<binary config>]
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: BinaryConfig <text config> [<binary config>]");
+            return;
+        }
+        String out = args.length > 1 ? args[1] : args[0].replaceFirst("\\.conf$", "") + EXTENSION;
+        compile(args[0], out);
+        System.out.println("Wrote " + out);
+    }
+}
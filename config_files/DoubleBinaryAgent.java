@@ -0,0 +1,186 @@
+package test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Common code of the two-input arithmetic agents (BinOpAgent, PlusAgent).
+ * Inputs are kept as primitive doubles and combined with a DoubleBinaryOperator,
+ * so evaluating a pair allocates nothing but the outgoing Message.
+ * Which values are paired is up to a TwoInputJoin (latest value, zip or time window).
+ * The last pair and the join's buffered values are saved by checkpoints.
+ */
+public abstract class DoubleBinaryAgent implements FusableAgent, Checkpointable {
+
+    private final String name;
+    protected final Topic in1;            // null when the agent was configured without two inputs
+    protected final Topic in2;
+    protected final AgentOutput out;      // null when there is no output topic
+    private final DoubleBinaryOperator operation;
+    private volatile TwoInputJoin join;
+
+    protected double x = Double.NaN;      // Values of the last pair that was combined
+    protected double y = Double.NaN;
+
+    protected DoubleBinaryAgent(String name, String input1, String input2, String output,
+                                DoubleBinaryOperator operation, TwoInputJoin join) {
+        this.name = name;
+        this.operation = operation;
+        this.join = join;
+        this.in1 = input1 != null ? TopicManagerSingleton.get().getTopic(input1) : null;
+        this.in2 = input2 != null ? TopicManagerSingleton.get().getTopic(input2) : null;
+        this.out = output != null ? new AgentOutput(TopicManagerSingleton.get().getTopic(output)) : null;
+
+        if (in1 != null && in2 != null) {
+            in1.subscribe(this);
+            in2.subscribe(this);
+        }
+        if (out != null) {
+            out.getTopic().addPublisher(this);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void reset() {
+        x = Double.NaN;
+        y = Double.NaN;
+        join.reset();
+    }
+
+    @Override
+    public void callback(String topic, Message msg) {
+        callback(TopicManagerSingleton.get().getTopic(topic), msg);
+    }
+
+    @Override
+    public void callback(Topic topic, Message msg) {
+        if (accept(topic, msg.asDouble, msg.timestamp)) {
+            out.publish(operation.applyAsDouble(x, y));
+        }
+    }
+
+    @Override
+    public void callbackBatch(String topic, List<Message> msgs) {
+        callbackBatch(TopicManagerSingleton.get().getTopic(topic), msgs);
+    }
+
+    // Evaluates the whole burst and publishes the results as one batch
+    @Override
+    public void callbackBatch(Topic topic, List<Message> msgs) {
+        double[] results = new double[msgs.size()];
+        int n = 0;
+        for (int i = 0; i < results.length; i++) {
+            Message msg = msgs.get(i);
+            if (accept(topic, msg.asDouble, msg.timestamp)) {
+                results[n++] = operation.applyAsDouble(x, y);
+            }
+        }
+        if (out != null) {
+            out.publishBatch(results, n);
+        }
+    }
+
+    /**
+     * Columnar mode for bulk input such as backfills: combines aligned rows a[i], b[i] in one
+     * pass and publishes the results as one batch. Rows are paired by position, the stored
+     * latest values are left alone, so this can be called from any thread.
+     *
+     * @return the result column that was published
+     */
+    public double[] evaluateColumns(double[] a, double[] b) {
+        int n = Math.min(a.length, b.length);
+        double[] results = new double[n];
+        combine(a, b, results, n);
+        n = keepRows(a, b, results, n);
+        if (out != null) {
+            out.publishBatch(results, n);
+        }
+        return n == results.length ? results : Arrays.copyOf(results, n);
+    }
+
+    // Column kernel; subclasses with a known operator override it with a specialized loop
+    protected void combine(double[] a, double[] b, double[] results, int n) {
+        DoubleColumns.apply(operation, a, b, results, n);
+    }
+
+    // Drops rows that the message-at-a-time path would not emit; returns the rows kept
+    protected int keepRows(double[] a, double[] b, double[] results, int n) {
+        return n;
+    }
+
+    // Hands the value to the join and returns true if a pair is due; the pair is left in x and y
+    private boolean accept(Topic topic, double value, long timestamp) {
+        if (in1 == null || out == null) {
+            return false;
+        }
+        boolean fromFirst;
+        if (topic == in1) {
+            fromFirst = true;
+        } else if (topic == in2) {
+            fromFirst = false;
+        } else {
+            return false;
+        }
+        TwoInputJoin j = join;
+        if (!j.offer(fromFirst, value, timestamp)) {
+            return false;
+        }
+        x = j.left();
+        y = j.right();
+        return true;
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        out.writeDouble(x);
+        out.writeDouble(y);
+        join.writeState(out);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        x = in.readDouble();
+        y = in.readDouble();
+        join.readState(in);
+    }
+
+    // Replaces the join semantics. Buffered unmatched values of the old join are discarded,
+    // so call it before messages flow.
+    public void setJoin(TwoInputJoin join) {
+        this.join = join;
+    }
+
+    public TwoInputJoin getJoin() {
+        return join;
+    }
+
+    public DoubleBinaryOperator getOperation() {
+        return operation;
+    }
+
+    @Override
+    public AgentOutput getOutput() {
+        return out;
+    }
+
+    // Disconnect from topics when closing
+    @Override
+    public void close() {
+        if (in1 != null && in2 != null) {
+            in1.unsubscribe(this);
+            in2.unsubscribe(this);
+        }
+        if (out != null) {
+            out.getTopic().removePublisher(this);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package test;
+
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Column kernels for combining aligned double[] inputs in one pass.
+ * The loops are kept to plain indexed array arithmetic so the JIT can turn them into SIMD code
+ * (C2 superword); the generic apply() is the scalar fallback for arbitrary operators.
+ */
+public final class DoubleColumns {
+
+    private DoubleColumns() {}
+
+    // out[i] = a[i] + b[i] for i < n
+    public static void add(double[] a, double[] b, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = a[i] + b[i];
+        }
+    }
+
+    // out[i] = op(a[i], b[i]) for i < n
+    public static void apply(DoubleBinaryOperator op, double[] a, double[] b, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = op.applyAsDouble(a[i], b[i]);
+        }
+    }
+}
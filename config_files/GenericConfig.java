@@ -1,73 +1,446 @@
 package test;
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 /**
  * GenericConfig reads a config file and creates agents accordingly,
  * wrapping each agent inside a ParallelAgent.
+ *
+ * Calling create() again - after editing the file or pointing setConfFile at another one -
+ * reloads by diffing the agent definitions: agents whose lines are gone are closed, new ones
+ * are started, and unchanged agents keep running with their state and subscriptions.
  */
 public class GenericConfig implements Config {
+
+    /**
+     * How the agents of a config are run. Can also be chosen by the config file itself
+     * with a line such as "#mode=virtual" (see parseLines).
+     */
+    public enum ExecutionMode {
+        THREAD_PER_AGENT, // one platform thread per agent (default)
+        WORK_STEALING,    // all agents share one core-sized pool
+        VIRTUAL_THREADS,  // one virtual thread per agent
+        RING_BUFFER;      // all agents on one event loop fed by a ring buffer
+
+        AgentScheduler scheduler() {
+            switch (this) {
+                case WORK_STEALING:
+                    return WorkStealingScheduler.shared();
+                case VIRTUAL_THREADS:
+                    return ThreadPerAgentScheduler.virtual();
+                case RING_BUFFER:
+                    return RingBufferScheduler.shared();
+                default:
+                    return ThreadPerAgentScheduler.get();
+            }
+        }
+
+        // Accepts "virtual", "work_stealing", "thread-per-agent", "ring" and so on
+        static ExecutionMode parse(String s) {
+            String key = s.trim().toUpperCase().replace('-', '_');
+            if (key.equals("VIRTUAL")) {
+                return VIRTUAL_THREADS;
+            }
+            if (key.equals("POOL") || key.equals("POOLED")) {
+                return WORK_STEALING;
+            }
+            if (key.equals("RING") || key.equals("SINGLE_THREADED")) {
+                return RING_BUFFER;
+            }
+            return valueOf(key);
+        }
+    }
+
+    private static final int PARALLEL_BUILD = 256; // build smaller batches on the calling thread
+
     private String confFile = "";
-    private List<ParallelAgent> agents = new ArrayList<>();
+    private final Map<AgentDef, List<Agent>> agents = new LinkedHashMap<>(); // running agents by definition
+    private AgentScheduler scheduler = ThreadPerAgentScheduler.get(); // thread per agent unless told otherwise
+    private AgentScheduler fileScheduler;                             // set by a "#mode=" line of the current file
+    private CheckpointManager checkpoint;                             // null unless checkpointing is on
+    private long checkpointInterval;
+    private StartupReport report = new StartupReport(); // timing of the last create() or reload
+    private boolean lazy;                                 // build agents on their first message
+    private long idleMillis;                              // close lazy agents idle this long, 0 = never
 
+    // The agents of the new file replace the running ones on the next create()
     public void setConfFile(String confFile) {
-        if (!this.confFile.equals(confFile)) {
-            this.confFile = confFile;
-            close();  // close existing agents if config changed
-        }
+        this.confFile = confFile;
+    }
+
+    // Chooses how agents created from now on are run, e.g. WorkStealingScheduler.shared()
+    // to share one core-sized pool instead of one thread per agent
+    public void setScheduler(AgentScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    public AgentScheduler getScheduler() {
+        return scheduler;
+    }
+
+    public void setExecutionMode(ExecutionMode mode) {
+        setScheduler(mode.scheduler());
+    }
+
+    /**
+     * In lazy mode, agents created from now on are only placeholders on their input topics until
+     * a message arrives (see LazyAgent). With idleMillis > 0 an agent that received nothing for
+     * that long is closed again until the next message.
+     */
+    public void setLazyActivation(boolean lazy, long idleMillis) {
+        this.lazy = lazy;
+        this.idleMillis = idleMillis;
+    }
+
+    // Saves agent and topic state every intervalMillis, and restores it in create(), before it returns
+    public void setCheckpoint(CheckpointManager checkpoint, long intervalMillis) {
+        this.checkpoint = checkpoint;
+        this.checkpointInterval = intervalMillis;
+    }
+
+    public CheckpointManager getCheckpoint() {
+        return checkpoint;
+    }
+
+    // Threads that run agents right now, including virtual ones that Thread.activeCount() misses
+    public static int activeThreadCount() {
+        return Thread.activeCount() + ThreadPerAgentScheduler.getActiveVirtualThreadCount();
+    }
+
+    // Creates the agents of the file, run in the given mode unless the file names its own
+    public void create(ExecutionMode mode) {
+        setExecutionMode(mode);
+        create();
     }
 
     @Override
     public void create() {
-        List<String> lines = readFile(confFile);
-        if (lines.isEmpty()) {
-            return; // Empty file, don't create any agents
+        long t0 = System.nanoTime();
+        if (confFile.endsWith(BinaryConfig.EXTENSION)) {
+            createFromBinary(t0);
+            return;
+        }
+        ParsedFile file;
+        try {
+            file = readConfig(Paths.get(confFile));
+        } catch (IOException e) {
+            System.err.println("Failed to read config file: " + confFile);
+            e.printStackTrace();
+            return; // keep the running graph as it is, the file may just be being rewritten
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return; // keep the running graph as it is
         }
+        fileScheduler = file.mode != null ? file.mode.scheduler() : null; // only an accepted file decides the mode
+        long parsed = System.nanoTime() - t0;
+        apply(file.definitions);
+        report.setParseNanos(parsed);
+    }
+
+    // A compiled config: no text lines to split, definitions come straight from the mapped file
+    private void createFromBinary(long t0) {
+        BinaryConfig bin;
+        try {
+            bin = BinaryConfig.load(confFile);
+        } catch (IOException e) {
+            System.err.println("Failed to read config file: " + confFile);
+            e.printStackTrace();
+            return; // keep the running graph as it is
+        }
+        fileScheduler = bin.getMode() != null ? bin.getMode().scheduler() : null;
+        long parsed = System.nanoTime() - t0;
+        apply(bin.getDefinitions());
+        report.setParseNanos(parsed);
+    }
 
+    /**
+     * A text config after parsing: the mode named by its "#mode=" line, null if there is none,
+     * and its agent definitions.
+     */
+    public static final class ParsedFile {
+        public final ExecutionMode mode;
+        public final List<AgentDef> definitions;
+
+        ParsedFile(ExecutionMode mode, List<AgentDef> definitions) {
+            this.mode = mode;
+            this.definitions = definitions;
+        }
+    }
+
+    // Reads and parses a text config, see parseLines
+    public static ParsedFile readConfig(Path file) throws IOException {
+        return parseLines(Files.readAllLines(file, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses the lines of a text config. A line starting with '#' is a directive such as
+     * "#mode=virtual" or, without '=', a comment; every other three lines define one agent.
+     * GenericConfig, WatchingConfig and BinaryConfig all read text configs through here.
+     *
+     * @throws IllegalArgumentException if the mode is unknown or the agent lines are not a multiple of 3
+     */
+    public static ParsedFile parseLines(List<String> raw) {
+        List<String> lines = new ArrayList<>(raw.size());
+        ExecutionMode mode = null;
+        for (String line : raw) {
+            if (!line.startsWith("#")) {
+                lines.add(line);
+                continue;
+            }
+            String d = line.substring(1).trim();
+            int eq = d.indexOf('=');
+            if (eq > 0 && d.substring(0, eq).trim().equals("mode")) {
+                String value = d.substring(eq + 1).trim();
+                try {
+                    mode = ExecutionMode.parse(value);
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Unknown execution mode in config file: " + value);
+                }
+            }
+        }
         if (lines.size() % 3 != 0) {
-            System.err.println("Invalid config file format. Number of lines must be multiple of 3.");
-            return;
+            throw new IllegalArgumentException("Invalid config file format. Number of lines must be multiple of 3.");
         }
+        return new ParsedFile(mode, parse(lines));
+    }
 
-        // Clear any existing agents before creating new ones
-        agents.clear();
+    // Agent definitions of the given agent lines, three per agent
+    private static List<AgentDef> parse(List<String> lines) {
+        List<AgentDef> defs = new ArrayList<>(lines.size() / 3);
+        Map<AgentDef, Integer> counts = new HashMap<>();
+        for (int i = 0; i + 2 < lines.size(); i += 3) {
+            AgentDef def = AgentDef.parse(lines.get(i), lines.get(i + 1), lines.get(i + 2), 0);
+            int seen = counts.merge(def, 1, Integer::sum);
+            defs.add(seen == 1 ? def : def.withOccurrence(seen - 1));
+        }
+        return defs;
+    }
 
-        for (int i = 0; i < lines.size(); i += 3) {
-            String className = lines.get(i).trim();
-            String[] subs = lines.get(i + 1).trim().isEmpty() ? new String[0] : lines.get(i + 1).trim().split(",");
-            String[] pubs = lines.get(i + 2).trim().isEmpty() ? new String[0] : lines.get(i + 2).trim().split(",");
+    /**
+     * Makes the running agents match the given definitions: closes the agents that are not
+     * among them, starts the missing ones and leaves the rest untouched. The work done is
+     * proportional to the change, not to the number of agents.
+     */
+    public void apply(List<AgentDef> defs) {
+        Set<AgentDef> wanted = new HashSet<>(defs);
+        List<AgentDef> removed = new ArrayList<>();
+        for (AgentDef def : agents.keySet()) {
+            if (!wanted.contains(def)) {
+                removed.add(def);
+            }
+        }
+        List<AgentDef> added = new ArrayList<>();
+        for (AgentDef def : defs) {
+            if (!agents.containsKey(def)) {
+                added.add(def);
+            }
+        }
+        update(removed, added);
+    }
+
+    /**
+     * Closes the agents of the removed definitions and starts agents for the added ones.
+     * Agents added to a running graph use the current scheduler; agents that are kept stay
+     * on the one they were started with.
+     */
+    public void update(Collection<AgentDef> removed, Collection<AgentDef> added) {
+        boolean first = agents.isEmpty();
+        for (AgentDef def : removed) {
+            List<Agent> pas = agents.remove(def);
+            if (pas == null) {
+                continue;
+            }
+            for (int p = 0; p < pas.size(); p++) {
+                if (checkpoint != null) {
+                    checkpoint.unregister(instanceKey(def, p, pas.size()));
+                }
+                pas.get(p).close();
+            }
+        }
 
+        AgentScheduler scheduler = fileScheduler != null ? fileScheduler : this.scheduler;
+        StartupReport report = new StartupReport();
+        List<AgentDef> toBuild = new ArrayList<>(added.size());
+        for (AgentDef def : added) {
+            if (!agents.containsKey(def)) {
+                toBuild.add(def);
+            }
+        }
+
+        // Agents only touch their own topics while being built, so large batches are built in
+        // parallel, on threads that are gone again when this returns. A built agent holds back
+        // its messages until it is started below.
+        long t0 = System.nanoTime();
+        boolean parallel = toBuild.size() >= PARALLEL_BUILD;
+        List<List<Agent>> built = new ArrayList<>(Collections.nCopies(toBuild.size(), null));
+        if (parallel) {
+            ParallelBatch.run(toBuild.size(), i -> built.set(i, build(toBuild.get(i), scheduler, report)));
+        } else {
+            for (int i = 0; i < toBuild.size(); i++) {
+                built.set(i, build(toBuild.get(i), scheduler, report));
+            }
+        }
+        long t1 = System.nanoTime();
+
+        List<String> keys = new ArrayList<>();
+        List<ParallelAgent> fresh = new ArrayList<>();
+        for (int i = 0; i < toBuild.size(); i++) {
+            AgentDef def = toBuild.get(i);
+            List<Agent> pas = built.get(i);
+            if (pas.isEmpty()) {
+                continue;
+            }
+            agents.put(def, pas);
+            for (Agent a : pas) {
+                if (a instanceof ParallelAgent) {
+                    fresh.add((ParallelAgent) a);
+                }
+            }
+            if (checkpoint != null) {
+                for (int p = 0; p < pas.size(); p++) {
+                    String key = instanceKey(def, p, pas.size());
+                    checkpoint.register(key, pas.get(p));
+                    keys.add(key);
+                }
+            }
+        }
+
+        // Restored state goes in before the agents start, so no message is handled on top of
+        // a state that the restore then overwrites
+        if (checkpoint != null) {
             try {
-                Class<?> clazz = Class.forName(className);
-                Constructor<?> ctor = clazz.getConstructor(String[].class, String[].class);
-                Agent agent = (Agent) ctor.newInstance((Object) subs, (Object) pubs);
-                agents.add(new ParallelAgent(agent, 10)); // use capacity 10 as example
-            } catch (ClassNotFoundException e) {
-                System.err.println("Class not found: " + className);
-            } catch (NoSuchMethodException e) {
-                System.err.println("Constructor not found in class: " + className);
-            } catch (Exception e) {
-                System.err.println("Failed to instantiate agent: " + className);
+                // A first build restores topics too; a reload only fills in the new agents
+                if (first) {
+                    checkpoint.restore();
+                } else {
+                    checkpoint.restore(keys);
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to restore checkpoint: " + checkpoint.getFile());
                 e.printStackTrace();
             }
         }
+        long t2 = System.nanoTime();
+        scheduler.startAll(fresh);
+        report.setPhases(t1 - t0, System.nanoTime() - t2,
+                parallel ? ParallelBatch.threadsFor(toBuild.size()) : 1);
+        this.report = report;
+
+        if (checkpoint != null && !agents.isEmpty()) {
+            checkpoint.start(checkpointInterval);
+        }
     }
 
-    private List<String> readFile(String filePath) {
-        List<String> lines = new ArrayList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                lines.add(line);
+    // Builds the agents of one definition, not yet started; several for a partitioned input, none on error.
+    // In lazy mode these are placeholders that build the agent on its first message.
+    private List<Agent> build(AgentDef def, AgentScheduler scheduler, StartupReport report) {
+        List<Agent> pas = new ArrayList<>(1);
+        try {
+            AgentFactory factory = AgentFactory.forName(def.className);
+            // A subscription like "A[4]" reads the partitioned topic A: one agent per partition
+            int partitions = partitionCount(def.subs);
+            for (int p = 0; p < Math.max(1, partitions); p++) {
+                long t0 = System.nanoTime();
+                String[] agentSubs = partitions == 0 ? def.subs : partitionSubs(def.subs, p);
+                if (lazy) {
+                    pas.add(new LazyAgent(factory, agentSubs, def.pubs, def.args, scheduler, idleMillis));
+                    report.recordAgent(def.className, System.nanoTime() - t0);
+                    continue;
+                }
+                Agent agent = factory.create(agentSubs, def.pubs, def.args);
+                pas.add(new ParallelAgent(agent, 10, ParallelAgent.OverflowPolicy.BLOCK, scheduler,
+                        topicsOf(agentSubs, def.pubs), false)); // use capacity 10 as example
+                report.recordAgent(def.className, System.nanoTime() - t0);
             }
-        } catch (IOException e) {
-            System.err.println("Failed to read config file: " + filePath);
+        } catch (ClassNotFoundException e) {
+            System.err.println("Class not found: " + def.className);
+        } catch (NoSuchMethodException e) {
+            System.err.println("Constructor not found in class: " + def.className);
+        } catch (Exception e) {
+            System.err.println("Failed to instantiate agent: " + def.className);
             e.printStackTrace();
         }
-        return lines;
+        return pas;
+    }
+
+    // Identifies an agent by its config lines, so a checkpoint finds it again after a restart
+    private static String instanceKey(AgentDef def, int partition, int instances) {
+        return instances == 1 ? def.toString() : def + "@" + partition;
+    }
+
+    // Agents running right now, in the order they were started - ParallelAgents, or LazyAgents in lazy mode
+    public List<Agent> getAgents() {
+        List<Agent> all = new ArrayList<>();
+        for (List<Agent> pas : agents.values()) {
+            all.addAll(pas);
+        }
+        return all;
+    }
+
+    public Set<AgentDef> getDefinitions() {
+        return Collections.unmodifiableSet(agents.keySet());
+    }
+
+    // The topics named in an agent's lines - the only ones a config-built agent subscribes or publishes to
+    private static List<Topic> topicsOf(String[] subs, String[] pubs) {
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        List<Topic> topics = new ArrayList<>(subs.length + pubs.length);
+        for (String s : subs) {
+            topics.add(tm.getTopic(s));
+        }
+        for (String p : pubs) {
+            topics.add(tm.getTopic(p));
+        }
+        return topics;
+    }
+
+    // Timing of the last create() or reload, per phase and per agent class
+    public StartupReport getStartupReport() {
+        return report;
+    }
+
+    // Partition count of the "name[N]" entries in subs, 0 if there are none; all entries must agree
+    private static int partitionCount(String[] subs) {
+        int n = 0;
+        for (String s : subs) {
+            int open = s.indexOf('[');
+            if (open > 0 && s.endsWith("]")) {
+                int count = Integer.parseInt(s.substring(open + 1, s.length() - 1).trim());
+                if (n != 0 && n != count) {
+                    throw new IllegalArgumentException("Partitioned inputs of one agent must have the same partition count");
+                }
+                n = count;
+            }
+        }
+        return n;
+    }
+
+    // The subscriptions of the agent instance for one partition: "A[4]" becomes "A#p"
+    private static String[] partitionSubs(String[] subs, int p) {
+        String[] out = new String[subs.length];
+        for (int i = 0; i < subs.length; i++) {
+            int open = subs[i].indexOf('[');
+            if (open > 0 && subs[i].endsWith("]")) {
+                String name = subs[i].substring(0, open).trim();
+                int count = Integer.parseInt(subs[i].substring(open + 1, subs[i].length() - 1).trim());
+                TopicManagerSingleton.get().getPartitionedTopic(name, count);
+                out[i] = TopicManagerSingleton.TopicManager.partitionName(name, p);
+            } else {
+                out[i] = subs[i];
+            }
+        }
+        return out;
     }
 
     @Override
@@ -82,11 +455,20 @@ public class GenericConfig implements Config {
 
     @Override
     public void close() {
-        // Create a copy of the list to avoid concurrent modification issues
-        List<ParallelAgent> agentsCopy = new ArrayList<>(agents);
-        for (ParallelAgent pa : agentsCopy) {
-            pa.close();
+        if (checkpoint != null) {
+            checkpoint.stop();
+            if (!agents.isEmpty()) {
+                try {
+                    checkpoint.checkpoint(); // keep the final state for the next start
+                } catch (IOException e) {
+                    System.err.println("Failed to write checkpoint: " + checkpoint.getFile());
+                }
+            }
+            checkpoint.unregisterAll();
+        }
+        for (Agent a : getAgents()) {
+            a.close();
         }
         agents.clear();
     }
-}
\ No newline at end of file
+}
@@ -1,18 +1,27 @@
 package test;
 
-public class IncAgent implements Agent {
+import java.util.List;
+
+public class IncAgent implements StatelessStage {
     private final String name;
     private final String[] subs;
     private final String[] pubs;
+    private final Topic in;           // Resolved input topic, null if none
+    private final AgentOutput out;    // Output topic, null if none
 
     public IncAgent(String[] subs, String[] pubs) {
         this.name = "IncAgent";
         this.subs = subs;
         this.pubs = pubs;
+        this.in = subs.length > 0 ? TopicManagerSingleton.get().getTopic(subs[0]) : null;
+        this.out = pubs.length > 0 ? new AgentOutput(TopicManagerSingleton.get().getTopic(pubs[0])) : null;
 
         // Subscribe to the first subscription topic, if any
-        if (subs.length > 0) {
-            TopicManagerSingleton.get().getTopic(subs[0]).subscribe(this);
+        if (in != null) {
+            in.subscribe(this);
+        }
+        if (out != null) {
+            out.getTopic().addPublisher(this);
         }
     }
 
@@ -28,20 +37,57 @@ public class IncAgent implements Agent {
 
     @Override
     public void callback(String topic, Message msg) {
-        if (subs.length > 0 && topic.equals(subs[0])) {
-            double value = msg.asDouble;
-            if (pubs.length > 0) {
-                // Publish incremented value to first publishing topic
-                TopicManagerSingleton.get().getTopic(pubs[0]).publish(new Message(value + 1));
+        callback(TopicManagerSingleton.get().getTopic(topic), msg);
+    }
+
+    @Override
+    public void callback(Topic topic, Message msg) {
+        if (in != null && topic == in && out != null) {
+            // Publish incremented value to first publishing topic
+            out.publish(apply(msg.asDouble));
+        }
+    }
+
+    @Override
+    public void callbackBatch(String topic, List<Message> msgs) {
+        callbackBatch(TopicManagerSingleton.get().getTopic(topic), msgs);
+    }
+
+    // Increments a whole burst and publishes the results as one downstream batch
+    @Override
+    public void callbackBatch(Topic topic, List<Message> msgs) {
+        if (in != null && topic == in && out != null) {
+            double[] results = new double[msgs.size()];
+            for (int i = 0; i < results.length; i++) {
+                results[i] = apply(msgs.get(i).asDouble);
             }
+            out.publishBatch(results, results.length);
         }
     }
 
+    @Override
+    public double apply(double value) {
+        return value + 1;
+    }
+
+    @Override
+    public Topic getInputTopic() {
+        return in;
+    }
+
+    @Override
+    public AgentOutput getOutput() {
+        return out;
+    }
+
     @Override
     public void close() {
         // Unsubscribe from the first subscription topic, if any
-        if (subs.length > 0) {
-            TopicManagerSingleton.get().getTopic(subs[0]).unsubscribe(this);
+        if (in != null) {
+            in.unsubscribe(this);
+        }
+        if (out != null) {
+            out.getTopic().removePublisher(this);
         }
     }
 }
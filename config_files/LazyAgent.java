@@ -0,0 +1,308 @@
+package test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stands in for a config agent until its input gets traffic.
+ *
+ * The placeholder only subscribes to the agent's input topics - no agent object, no mailbox,
+ * no thread. The first message builds the real agent in a ParallelAgent, starts it and swaps
+ * it into the placeholder's place on every input topic in one step, so each later publish
+ * reaches exactly one of the two; a message that still reaches the placeholder is passed on.
+ *
+ * With an idle timeout, an agent that received nothing for that long (up to twice that long,
+ * as idleness is checked once per timeout) is closed and the placeholder takes its place again.
+ * The placeholder is swapped in first; the old agent then processes what it already took and
+ * passes anything that still reaches it back to the placeholder, which parks those messages
+ * until the old agent's final state is captured. A Checkpointable agent's state is kept in the
+ * placeholder and restored when it comes back, before any parked message reaches it.
+ */
+public class LazyAgent implements Checkpointable {
+
+    // A message that arrived while the previous agent was being retired
+    private static final class Parked {
+        final Topic topic;
+        final Message msg;
+
+        Parked(Topic topic, Message msg) {
+            this.topic = topic;
+            this.msg = msg;
+        }
+    }
+
+    private static ScheduledExecutorService sweeper;
+
+    private final AgentFactory factory;
+    private final String[] subs;
+    private final String[] pubs;
+    private final String[] args;
+    private final AgentScheduler scheduler;
+    private final long idleMillis;          // 0 keeps an agent once it was activated
+    private final List<Topic> inputs = new ArrayList<>(2);
+
+    private volatile ParallelAgent active;  // null while only the placeholder is subscribed
+    private ParallelAgent retiring;         // the agent being deactivated, null if none
+    private final List<Parked> parked = new ArrayList<>(); // messages that came in while retiring
+    private volatile boolean touched;       // a message arrived since the last idle check
+    private byte[] saved;                   // state of the last deactivated agent
+    private boolean closed;
+    private boolean broken;                 // the agent could not be built, do not retry per message
+    private int activations;
+    private ScheduledFuture<?> idleCheck;
+
+    public LazyAgent(AgentFactory factory, String[] subs, String[] pubs, String[] args,
+                     AgentScheduler scheduler, long idleMillis) {
+        this.factory = factory;
+        this.subs = subs;
+        this.pubs = pubs;
+        this.args = args;
+        this.scheduler = scheduler;
+        this.idleMillis = idleMillis;
+        for (String s : subs) {
+            Topic t = TopicManagerSingleton.get().getTopic(s);
+            inputs.add(t);
+            t.subscribe(this);
+        }
+        if (idleMillis > 0) {
+            idleCheck = sweeper().scheduleWithFixedDelay(this::checkIdle, idleMillis, idleMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService sweeper() {
+        if (sweeper == null) {
+            sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "lazy-idle");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return sweeper;
+    }
+
+    @Override
+    public String getName() {
+        ParallelAgent a = active;
+        return a != null ? a.getName() : factory.getType().getSimpleName();
+    }
+
+    @Override
+    public void reset() {
+        ParallelAgent a = active;
+        if (a != null) {
+            a.reset();
+        }
+    }
+
+    @Override
+    public void callback(String topic, Message msg) {
+        callback(TopicManagerSingleton.get().getTopic(topic), msg);
+    }
+
+    @Override
+    public void callback(Topic topic, Message msg) {
+        ParallelAgent a = active;
+        if (a == null) {
+            a = activate(topic, Collections.singletonList(msg));
+        }
+        if (a != null) {
+            touched = true;
+            a.callback(topic, msg);
+        }
+    }
+
+    @Override
+    public void callbackBatch(String topic, List<Message> msgs) {
+        callbackBatch(TopicManagerSingleton.get().getTopic(topic), msgs);
+    }
+
+    @Override
+    public void callbackBatch(Topic topic, List<Message> msgs) {
+        ParallelAgent a = active;
+        if (a == null) {
+            a = activate(topic, msgs);
+        }
+        if (a != null) {
+            touched = true;
+            a.callbackBatch(topic, msgs);
+        }
+    }
+
+    // Activates the agent for these messages and returns it, started. Returns null if the
+    // placeholder is closed or broken, or if it parked the messages because an agent is retiring.
+    private ParallelAgent activate(Topic topic, List<Message> msgs) {
+        ParallelAgent pa;
+        synchronized (this) {
+            if (retiring != null) {
+                for (Message m : msgs) {
+                    parked.add(new Parked(topic, m));
+                }
+                return null;
+            }
+            pa = build();
+        }
+        if (pa != null) {
+            pa.start(); // outside the lock: passing on held messages may wait for the worker
+        }
+        return pa;
+    }
+
+    // Builds and swaps in the real agent, not yet started; returns the active agent, if any
+    private synchronized ParallelAgent build() {
+        if (active != null || closed || broken) {
+            return active;
+        }
+        TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+        List<Topic> wanted = tm.beginDeferredSubscribe();
+        Agent agent;
+        try {
+            agent = factory.create(subs, pubs, args);
+        } catch (Exception e) {
+            broken = true;
+            System.err.println("Failed to instantiate agent: " + factory.getType().getName());
+            e.printStackTrace();
+            return null;
+        } finally {
+            tm.endDeferredSubscribe();
+        }
+        List<Topic> outputs = new ArrayList<>(pubs.length);
+        for (String p : pubs) {
+            outputs.add(tm.getTopic(p));
+        }
+        ParallelAgent pa = new ParallelAgent(agent, 10, ParallelAgent.OverflowPolicy.BLOCK, scheduler, outputs, false);
+        if (saved != null) {
+            try {
+                pa.restoreState(saved);
+            } catch (IOException e) {
+                System.err.println("Could not restore state of agent " + pa.getName() + ": " + e);
+            }
+            saved = null;
+        }
+        // Until it is started the agent holds these back, ahead of anything published from now on
+        for (Parked p : parked) {
+            pa.callback(p.topic, p.msg);
+        }
+        parked.clear();
+        // Only now does the agent become visible to publishers
+        for (Topic t : wanted) {
+            pa.attach(t, this);
+        }
+        for (Topic t : inputs) {
+            if (!wanted.contains(t)) {
+                t.unsubscribe(this); // an input the agent itself did not subscribe to
+            }
+        }
+        touched = true;
+        activations++;
+        active = pa;
+        return pa;
+    }
+
+    private void checkIdle() {
+        ParallelAgent pa;
+        synchronized (this) {
+            pa = active;
+            if (pa == null || closed) {
+                return;
+            }
+            if (touched) {
+                touched = false;
+                return;
+            }
+            // Take the inputs back first; new messages are parked here until the state is saved
+            for (Topic t : inputs) {
+                t.replaceSubscriber(pa, this);
+            }
+            active = null;
+            retiring = pa;
+        }
+        // Outside the lock: the worker's output may cycle back to us while it finishes.
+        // retire() returns once the agent has processed everything it took; a publisher that
+        // still reaches it after that is passed on to us.
+        pa.retire(this);
+        byte[] state = null;
+        try {
+            state = pa.captureState();
+        } catch (IOException e) {
+            System.err.println("Could not save state of agent " + pa.getName() + ": " + e);
+        }
+        pa.close();
+
+        ParallelAgent next;
+        synchronized (this) {
+            saved = state;
+            retiring = null;
+            next = parked.isEmpty() ? null : build(); // messages came in meanwhile - bring it back
+        }
+        if (next != null) {
+            next.start();
+        }
+    }
+
+    public boolean isActive() {
+        return active != null;
+    }
+
+    // How many times the real agent was built
+    public synchronized int getActivationCount() {
+        return activations;
+    }
+
+    // The running agent, or null while only the placeholder exists
+    public ParallelAgent getActiveAgent() {
+        return active;
+    }
+
+    @Override
+    public synchronized void writeState(DataOutput out) throws IOException {
+        ParallelAgent a = active != null ? active : retiring;
+        byte[] state = a != null ? a.captureState() : saved;
+        out.writeInt(state == null ? -1 : state.length);
+        if (state != null) {
+            out.write(state);
+        }
+    }
+
+    @Override
+    public synchronized void readState(DataInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) {
+            return;
+        }
+        byte[] state = new byte[n];
+        in.readFully(state);
+        if (active != null) {
+            active.restoreState(state);
+        } else {
+            saved = state; // applied when the agent is built
+        }
+    }
+
+    @Override
+    public void close() {
+        ParallelAgent pa;
+        synchronized (this) {
+            closed = true;
+            if (idleCheck != null) {
+                idleCheck.cancel(false);
+            }
+            for (Topic t : inputs) {
+                t.unsubscribe(this);
+            }
+            pa = active;
+            active = null;
+            parked.clear();
+        }
+        if (pa != null) {
+            pa.close(); // outside the lock, as in checkIdle
+        }
+    }
+}
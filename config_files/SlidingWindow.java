@@ -0,0 +1,211 @@
+package test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Incremental statistics over the most recent values of a stream.
+ *
+ * The window holds either the last N values (count window) or the values of the last
+ * T milliseconds (time window). Everything lives in primitive rings indexed by a running
+ * sequence number: sum, mean and variance are updated in O(1) per value (Welford, with removal),
+ * min and max in amortized O(1) with monotonic deques.
+ * A window is used from one thread only - the owning agent's.
+ */
+public class SlidingWindow {
+
+    private final int maxCount;        // count window size, or 0 for a time window
+    private final long spanMillis;     // time window span, or 0 for a count window
+
+    private double[] values;
+    private long[] timestamps;
+    private long head = 0;             // sequence number of the oldest value in the window
+    private long tail = 0;             // sequence number the next value will get
+
+    private double mean = 0;           // Welford running mean
+    private double m2 = 0;             // Welford sum of squared differences
+    private double sum = 0;
+
+    // Monotonic deques of sequence numbers: front is the current min / max
+    private long[] minQ;
+    private long[] maxQ;
+    private long minHead, minTail, maxHead, maxTail;
+
+    private SlidingWindow(int maxCount, long spanMillis, int initialCapacity) {
+        this.maxCount = maxCount;
+        this.spanMillis = spanMillis;
+        values = new double[initialCapacity];
+        timestamps = new long[initialCapacity];
+        minQ = new long[initialCapacity];
+        maxQ = new long[initialCapacity];
+    }
+
+    // Window over the last count values
+    public static SlidingWindow ofCount(int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Window size must be positive: " + count);
+        }
+        return new SlidingWindow(count, 0, count);
+    }
+
+    // Window over the values of the last spanMillis milliseconds; grows as needed
+    public static SlidingWindow ofTime(long spanMillis) {
+        if (spanMillis <= 0) {
+            throw new IllegalArgumentException("Window span must be positive: " + spanMillis);
+        }
+        return new SlidingWindow(0, spanMillis, 64);
+    }
+
+    // Adds a value. NaN is ignored: it would turn sum and mean into NaN for good, since
+    // evicting it later cannot subtract it out again.
+    public void add(double value, long timestamp) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        if (maxCount > 0) {
+            if (tail - head == maxCount) {
+                evictOldest();
+            }
+        } else {
+            expire(timestamp - spanMillis);
+            if (tail - head == values.length) {
+                grow();
+            }
+        }
+
+        int slot = slot(tail);
+        values[slot] = value;
+        timestamps[slot] = timestamp;
+
+        long n = tail - head + 1;
+        double d = value - mean;
+        mean += d / n;
+        m2 += d * (value - mean);
+        sum += value;
+
+        while (minTail > minHead && values[slot(minQ[idx(minTail - 1)])] >= value) {
+            minTail--;
+        }
+        minQ[idx(minTail++)] = tail;
+        while (maxTail > maxHead && values[slot(maxQ[idx(maxTail - 1)])] <= value) {
+            maxTail--;
+        }
+        maxQ[idx(maxTail++)] = tail;
+
+        tail++;
+    }
+
+    // Drops values older than the given time; only meaningful for time windows
+    public void expire(long oldestMillis) {
+        while (tail > head && timestamps[slot(head)] < oldestMillis) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        double value = values[slot(head)];
+        long n = tail - head - 1;
+        if (n == 0) {
+            mean = 0;
+            m2 = 0;
+            sum = 0;
+        } else {
+            double d = value - mean;
+            mean -= d / n;
+            m2 -= d * (value - mean);
+            sum -= value;
+        }
+        if (minTail > minHead && minQ[idx(minHead)] == head) {
+            minHead++;
+        }
+        if (maxTail > maxHead && maxQ[idx(maxHead)] == head) {
+            maxHead++;
+        }
+        head++;
+    }
+
+    // Doubles every ring, keeping each entry at its sequence-number slot
+    private void grow() {
+        int cap = values.length * 2;
+        double[] v = new double[cap];
+        long[] t = new long[cap];
+        for (long s = head; s < tail; s++) {
+            v[(int) (s % cap)] = values[slot(s)];
+            t[(int) (s % cap)] = timestamps[slot(s)];
+        }
+        minQ = regrow(minQ, minHead, minTail, cap);
+        maxQ = regrow(maxQ, maxHead, maxTail, cap);
+        values = v;
+        timestamps = t;
+    }
+
+    private long[] regrow(long[] q, long from, long to, int cap) {
+        long[] n = new long[cap];
+        for (long i = from; i < to; i++) {
+            n[(int) (i % cap)] = q[(int) (i % q.length)];
+        }
+        return n;
+    }
+
+    private int slot(long seq) {
+        return (int) (seq % values.length);
+    }
+
+    private int idx(long pos) {
+        return (int) (pos % minQ.length);
+    }
+
+    public int size() {
+        return (int) (tail - head);
+    }
+
+    public double sum() {
+        return sum;
+    }
+
+    public double mean() {
+        return size() == 0 ? Double.NaN : mean;
+    }
+
+    // Population variance of the values in the window
+    public double variance() {
+        int n = size();
+        return n == 0 ? Double.NaN : Math.max(0, m2 / n);
+    }
+
+    public double min() {
+        return minTail > minHead ? values[slot(minQ[idx(minHead)])] : Double.NaN;
+    }
+
+    public double max() {
+        return maxTail > maxHead ? values[slot(maxQ[idx(maxHead)])] : Double.NaN;
+    }
+
+    // Saves the values in the window, oldest first, for checkpoints
+    public void writeState(DataOutput out) throws IOException {
+        out.writeInt(size());
+        for (long s = head; s < tail; s++) {
+            out.writeDouble(values[slot(s)]);
+            out.writeLong(timestamps[slot(s)]);
+        }
+    }
+
+    // Replaces the window with the saved values; the statistics are rebuilt by adding them again
+    public void readState(DataInput in) throws IOException {
+        clear();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            double v = in.readDouble();
+            add(v, in.readLong());
+        }
+    }
+
+    public void clear() {
+        head = tail = 0;
+        minHead = minTail = maxHead = maxTail = 0;
+        mean = m2 = sum = 0;
+        Arrays.fill(values, 0);
+    }
+}
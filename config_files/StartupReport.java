@@ -0,0 +1,85 @@
+package test;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timing of one GenericConfig create() or reload: the phases, and per agent class how many
+ * agents were built and how long their constructors (including the ParallelAgent wrapper) took.
+ * Per-class times are summed over threads, so with parallel construction they can add up to
+ * more than the construct phase.
+ */
+public class StartupReport {
+
+    private static final class ClassTiming {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+
+    private final Map<String, ClassTiming> classes = new ConcurrentHashMap<>();
+    private long parseNanos;
+    private long constructNanos;
+    private long startNanos;
+    private int threads = 1;
+
+    void recordAgent(String className, long nanos) {
+        ClassTiming t = classes.computeIfAbsent(className, k -> new ClassTiming());
+        t.count.increment();
+        t.nanos.add(nanos);
+    }
+
+    void setParseNanos(long parseNanos) {
+        this.parseNanos = parseNanos;
+    }
+
+    void setPhases(long constructNanos, long startNanos, int threads) {
+        this.constructNanos = constructNanos;
+        this.startNanos = startNanos;
+        this.threads = threads;
+    }
+
+    public long getParseNanos() {
+        return parseNanos;
+    }
+
+    public long getConstructNanos() {
+        return constructNanos;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getTotalNanos() {
+        return parseNanos + constructNanos + startNanos;
+    }
+
+    // Agents built per class
+    public Map<String, Long> getCounts() {
+        Map<String, Long> out = new TreeMap<>();
+        classes.forEach((k, v) -> out.put(k, v.count.sum()));
+        return out;
+    }
+
+    // Construction time per class, in nanoseconds
+    public Map<String, Long> getNanos() {
+        Map<String, Long> out = new TreeMap<>();
+        classes.forEach((k, v) -> out.put(k, v.nanos.sum()));
+        return out;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("startup %.3f ms (parse %.3f, construct %.3f on %d threads, start %.3f)%n",
+                getTotalNanos() / 1e6, parseNanos / 1e6, constructNanos / 1e6, threads, startNanos / 1e6));
+        for (Map.Entry<String, Long> e : getCounts().entrySet()) {
+            long nanos = classes.get(e.getKey()).nanos.sum();
+            sb.append(String.format("  %-40s %8d agents %10.3f ms %8.1f us/agent%n",
+                    e.getKey(), e.getValue(), nanos / 1e6, nanos / 1e3 / e.getValue()));
+        }
+        return sb.toString();
+    }
+}
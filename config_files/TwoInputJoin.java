@@ -0,0 +1,293 @@
+package test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Decides which values of a two-input agent are combined into one result.
+ *
+ * latest()        - keeps the newest value of each input and emits on every update once both
+ *                   are numbers (BinOpAgent's behaviour).
+ * zip(capacity)   - pairs the n-th value of one input with the n-th value of the other.
+ * window(ms, cap) - pairs each value with the oldest unmatched value of the other input
+ *                   published at most ms earlier; older values expire.
+ *
+ * zip and window buffer unmatched values per input in primitive rings of a fixed capacity.
+ * When one input runs ahead, its oldest unmatched values are dropped and counted, so memory
+ * stays bounded no matter how far the rates diverge.
+ *
+ * A join belongs to one agent and is only used from that agent's thread.
+ */
+public abstract class TwoInputJoin {
+
+    private double left;
+    private double right;
+
+    public static TwoInputJoin latest() {
+        return new Latest();
+    }
+
+    public static TwoInputJoin zip(int capacity) {
+        return new Zip(capacity);
+    }
+
+    public static TwoInputJoin window(long windowMillis, int capacity) {
+        return new Window(windowMillis, capacity);
+    }
+
+    /**
+     * Offers a value from the first (fromFirst) or second input.
+     *
+     * @return true if a pair is ready; read it with left() and right()
+     */
+    public abstract boolean offer(boolean fromFirst, double value, long timestamp);
+
+    public abstract void reset();
+
+    // Values discarded because a buffer was full or a value expired
+    public abstract long getDropped();
+
+    // Saves the unmatched values, for checkpoints
+    public abstract void writeState(DataOutput out) throws IOException;
+
+    // Restores what writeState saved; fails if it came from a different kind of join
+    public abstract void readState(DataInput in) throws IOException;
+
+    private static void checkKind(DataInput in, int kind) throws IOException {
+        int saved = in.readByte();
+        if (saved != kind) {
+            throw new IOException("Saved join state is of another kind (" + saved + ", expected " + kind + ")");
+        }
+    }
+
+    public double left() {
+        return left;
+    }
+
+    public double right() {
+        return right;
+    }
+
+    protected boolean emit(double l, double r) {
+        left = l;
+        right = r;
+        return true;
+    }
+
+    // ---- implementations ----
+
+    private static final class Latest extends TwoInputJoin {
+        private double x = Double.NaN;
+        private double y = Double.NaN;
+
+        @Override
+        public boolean offer(boolean fromFirst, double value, long timestamp) {
+            if (fromFirst) {
+                x = value;
+            } else {
+                y = value;
+            }
+            return !Double.isNaN(x) && !Double.isNaN(y) && emit(x, y);
+        }
+
+        @Override
+        public void reset() {
+            x = Double.NaN;
+            y = Double.NaN;
+        }
+
+        @Override
+        public long getDropped() {
+            return 0;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            out.writeByte(0);
+            out.writeDouble(x);
+            out.writeDouble(y);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            checkKind(in, 0);
+            x = in.readDouble();
+            y = in.readDouble();
+        }
+    }
+
+    private static final class Zip extends TwoInputJoin {
+        private final Ring first;
+        private final Ring second;
+
+        Zip(int capacity) {
+            first = new Ring(capacity);
+            second = new Ring(capacity);
+        }
+
+        @Override
+        public boolean offer(boolean fromFirst, double value, long timestamp) {
+            Ring mine = fromFirst ? first : second;
+            Ring other = fromFirst ? second : first;
+            if (other.isEmpty()) {
+                mine.push(value, timestamp);
+                return false;
+            }
+            double v = other.pop();
+            return fromFirst ? emit(value, v) : emit(v, value);
+        }
+
+        @Override
+        public void reset() {
+            first.clear();
+            second.clear();
+        }
+
+        @Override
+        public long getDropped() {
+            return first.dropped + second.dropped;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            out.writeByte(1);
+            first.write(out);
+            second.write(out);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            checkKind(in, 1);
+            first.read(in);
+            second.read(in);
+        }
+    }
+
+    private static final class Window extends TwoInputJoin {
+        private final long windowMillis;
+        private final Ring first;
+        private final Ring second;
+
+        Window(long windowMillis, int capacity) {
+            this.windowMillis = windowMillis;
+            first = new Ring(capacity);
+            second = new Ring(capacity);
+        }
+
+        @Override
+        public boolean offer(boolean fromFirst, double value, long timestamp) {
+            Ring mine = fromFirst ? first : second;
+            Ring other = fromFirst ? second : first;
+            long oldest = timestamp - windowMillis;
+            first.expire(oldest);
+            second.expire(oldest);
+            if (other.isEmpty()) {
+                mine.push(value, timestamp);
+                return false;
+            }
+            double v = other.pop();
+            return fromFirst ? emit(value, v) : emit(v, value);
+        }
+
+        @Override
+        public void reset() {
+            first.clear();
+            second.clear();
+        }
+
+        @Override
+        public long getDropped() {
+            return first.dropped + second.dropped;
+        }
+
+        @Override
+        public void writeState(DataOutput out) throws IOException {
+            out.writeByte(2);
+            first.write(out);
+            second.write(out);
+        }
+
+        @Override
+        public void readState(DataInput in) throws IOException {
+            checkKind(in, 2);
+            first.read(in);
+            second.read(in);
+        }
+    }
+
+    // Bounded FIFO of (value, timestamp) pairs; pushing into a full ring drops the oldest entry
+    private static final class Ring {
+        private final double[] values;
+        private final long[] timestamps;
+        private int head = 0;  // index of the oldest entry
+        private int size = 0;
+        long dropped = 0;
+
+        Ring(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Join buffer capacity must be positive: " + capacity);
+            }
+            values = new double[capacity];
+            timestamps = new long[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void push(double value, long timestamp) {
+            if (size == values.length) {
+                head = (head + 1) % values.length;
+                size--;
+                dropped++;
+            }
+            int slot = (head + size) % values.length;
+            values[slot] = value;
+            timestamps[slot] = timestamp;
+            size++;
+        }
+
+        double pop() {
+            double v = values[head];
+            head = (head + 1) % values.length;
+            size--;
+            return v;
+        }
+
+        // Drops entries published before the given time
+        void expire(long oldest) {
+            while (size > 0 && timestamps[head] < oldest) {
+                head = (head + 1) % values.length;
+                size--;
+                dropped++;
+            }
+        }
+
+        void clear() {
+            head = 0;
+            size = 0;
+        }
+
+        // Entries oldest first
+        void write(DataOutput out) throws IOException {
+            out.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                int slot = (head + i) % values.length;
+                out.writeDouble(values[slot]);
+                out.writeLong(timestamps[slot]);
+            }
+        }
+
+        // A saved ring larger than this one keeps its newest entries
+        void read(DataInput in) throws IOException {
+            clear();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                double v = in.readDouble();
+                push(v, in.readLong());
+            }
+            dropped = 0;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package test;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A config that follows its file - or a directory of "*.conf" fragments - while it runs.
+ *
+ * create() loads everything once and starts a WatchService on the directory. Afterwards only
+ * the files the WatchService reports are read again: a burst of writes is collected until the
+ * directory has been quiet for the debounce time, each changed fragment is diffed against what
+ * it defined before, and only the difference is applied to the running agents through
+ * GenericConfig.update. Unchanged agents keep running throughout.
+ *
+ * Fragments use the GenericConfig format and are parsed by GenericConfig.parseLines. A "#mode="
+ * line is checked like everywhere else but not applied - the execution mode comes from
+ * setExecutionMode. A definition that appears in several fragments runs once and stops when
+ * the last fragment defining it drops it.
+ */
+public class WatchingConfig implements Config {
+
+    private final Path path;        // the watched file, or the fragment directory
+    private final Path dir;
+    private final boolean directory;
+    private final long debounceMillis;
+    private final GenericConfig target = new GenericConfig();
+
+    private final Map<Path, List<AgentDef>> fragments = new HashMap<>(); // current definitions per file
+    private final Map<AgentDef, Integer> refs = new HashMap<>();         // number of fragments defining each
+    private int version = 0;
+    private WatchService watcher;
+    private Thread thread;
+
+    public WatchingConfig(String path) {
+        this(path, 200);
+    }
+
+    public WatchingConfig(String path, long debounceMillis) {
+        this.path = Paths.get(path).toAbsolutePath();
+        this.directory = Files.isDirectory(this.path);
+        this.dir = directory ? this.path : this.path.getParent();
+        this.debounceMillis = debounceMillis;
+    }
+
+    public void setExecutionMode(GenericConfig.ExecutionMode mode) {
+        target.setExecutionMode(mode);
+    }
+
+    // The GenericConfig that runs the agents
+    public GenericConfig getTarget() {
+        return target;
+    }
+
+    @Override
+    public synchronized void create() {
+        if (watcher != null) {
+            return; // already loaded and watching
+        }
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            // Register before the first read so that no edit falls between the two
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (IOException e) {
+            System.err.println("Cannot watch config directory " + dir + ": " + e);
+            watcher = null;
+        }
+        reload(allFragments());
+        if (watcher != null) {
+            WatchService ws = watcher;
+            thread = new Thread(() -> watch(ws), "config-watch");
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    // Reads the given fragments again and applies what changed
+    private synchronized void reload(Set<Path> changed) {
+        List<AgentDef> removed = new ArrayList<>();
+        List<AgentDef> added = new ArrayList<>();
+        for (Path file : changed) {
+            List<AgentDef> now = read(file);
+            if (now == null) {
+                continue; // unreadable or malformed - keep what it defined before
+            }
+            List<AgentDef> before = fragments.getOrDefault(file, Collections.emptyList());
+            Set<AgentDef> nowSet = new HashSet<>(now);
+            Set<AgentDef> beforeSet = new HashSet<>(before);
+            for (AgentDef def : before) {
+                if (!nowSet.contains(def) && refs.merge(def, -1, Integer::sum) == 0) {
+                    refs.remove(def);
+                    removed.add(def);
+                }
+            }
+            for (AgentDef def : now) {
+                if (!beforeSet.contains(def) && refs.merge(def, 1, Integer::sum) == 1) {
+                    added.add(def);
+                }
+            }
+            if (now.isEmpty()) {
+                fragments.remove(file);
+            } else {
+                fragments.put(file, now);
+            }
+        }
+        if (!removed.isEmpty() || !added.isEmpty()) {
+            target.update(removed, added);
+            version++;
+        }
+    }
+
+    // The definitions in one file; empty if it was deleted, null if it cannot be used
+    private static List<AgentDef> read(Path file) {
+        if (!Files.exists(file)) {
+            return Collections.emptyList();
+        }
+        try {
+            return GenericConfig.readConfig(file).definitions;
+        } catch (IOException e) {
+            System.err.println("Failed to read config file: " + file);
+            return null;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage() + " Keeping the previous version of " + file + ".");
+            return null;
+        }
+    }
+
+    private void watch(WatchService ws) {
+        try {
+            while (true) {
+                Set<Path> changed = new LinkedHashSet<>();
+                WatchKey key = ws.take();
+                // Collect events until the directory has been quiet for the debounce time
+                while (key != null) {
+                    if (collect(key, changed)) {
+                        changed.addAll(allFragments());
+                    }
+                    if (!key.reset()) {
+                        System.err.println("Config directory is gone, no longer watching: " + dir);
+                        return;
+                    }
+                    key = ws.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                }
+                if (!changed.isEmpty()) {
+                    reload(changed);
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    // Adds the relevant files of the key's events; returns true if events were lost
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            Path file = dir.resolve((Path) event.context());
+            if (isFragment(file)) {
+                changed.add(file);
+            }
+        }
+        return overflow;
+    }
+
+    private boolean isFragment(Path file) {
+        if (!directory) {
+            return file.equals(path);
+        }
+        String name = file.getFileName().toString();
+        return name.endsWith(".conf") && !name.startsWith(".");
+    }
+
+    // Every fragment on disk plus the ones known from before; only read at start and after lost events
+    private Set<Path> allFragments() {
+        Set<Path> all = new LinkedHashSet<>(fragments.keySet());
+        if (!directory) {
+            all.add(path);
+            return all;
+        }
+        List<Path> found = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                if (isFragment(f) && Files.isRegularFile(f)) {
+                    found.add(f);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to list config directory: " + dir);
+        }
+        Collections.sort(found);
+        all.addAll(found);
+        return all;
+    }
+
+    @Override
+    public String getName() {
+        return "WatchingConfig";
+    }
+
+    // Number of reloads that changed the running agents, starting with the first load
+    @Override
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    @Override
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to close config watcher: " + e);
+                }
+                watcher = null;
+            }
+            t = thread;
+            thread = null;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            target.close();
+            fragments.clear();
+            refs.clear();
+        }
+    }
+}
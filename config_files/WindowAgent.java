@@ -0,0 +1,166 @@
+package test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Publishes a statistic of the last values of its input topic after every message.
+ *
+ * Config file form - the class line carries the function and the window:
+ *   test.WindowAgent mean count=100
+ *   A
+ *   A_avg
+ * Functions: sum, mean, min, max, variance. Windows: count=N (last N values) or
+ * time=MS (values of the last MS milliseconds, by message timestamp).
+ */
+public class WindowAgent implements FusableAgent, Checkpointable {
+
+    public enum Function {
+        SUM, MEAN, MIN, MAX, VARIANCE
+    }
+
+    private final String name;
+    private final Topic in;           // Resolved input topic, null if none
+    private final AgentOutput out;    // Output topic, null if none
+    private final Function function;
+    private final SlidingWindow window;
+
+    // Constructor used by GenericConfig, args are e.g. {"mean", "count=100"}
+    public WindowAgent(String[] subs, String[] pubs, String[] args) {
+        this(subs.length > 0 ? subs[0] : null, pubs.length > 0 ? pubs[0] : null,
+                parseFunction(args), parseWindow(args));
+    }
+
+    public WindowAgent(String input, String output, Function function, SlidingWindow window) {
+        this.name = "WindowAgent";
+        this.function = function;
+        this.window = window;
+        this.in = input != null ? TopicManagerSingleton.get().getTopic(input) : null;
+        this.out = output != null ? new AgentOutput(TopicManagerSingleton.get().getTopic(output)) : null;
+
+        if (in != null) {
+            in.subscribe(this);
+        }
+        if (out != null) {
+            out.getTopic().addPublisher(this);
+        }
+    }
+
+    private static Function parseFunction(String[] args) {
+        if (args.length < 1) {
+            throw new IllegalArgumentException("WindowAgent needs a function: sum, mean, min, max or variance");
+        }
+        return Function.valueOf(args[0].trim().toUpperCase());
+    }
+
+    private static SlidingWindow parseWindow(String[] args) {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("WindowAgent needs a window: count=N or time=MS");
+        }
+        String[] kv = args[1].trim().split("=");
+        if (kv.length != 2) {
+            throw new IllegalArgumentException("Bad window spec: " + args[1]);
+        }
+        switch (kv[0].trim().toLowerCase()) {
+            case "count":
+                return SlidingWindow.ofCount(Integer.parseInt(kv[1].trim()));
+            case "time":
+                return SlidingWindow.ofTime(Long.parseLong(kv[1].trim()));
+            default:
+                throw new IllegalArgumentException("Bad window spec: " + args[1]);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void reset() {
+        window.clear();
+    }
+
+    @Override
+    public void callback(String topic, Message msg) {
+        callback(TopicManagerSingleton.get().getTopic(topic), msg);
+    }
+
+    // Like BinOpAgent with a NaN operand, a message that is not a number produces no result
+    @Override
+    public void callback(Topic topic, Message msg) {
+        if (in != null && topic == in && out != null && !Double.isNaN(msg.asDouble)) {
+            out.publish(update(msg));
+        }
+    }
+
+    @Override
+    public void callbackBatch(String topic, List<Message> msgs) {
+        callbackBatch(TopicManagerSingleton.get().getTopic(topic), msgs);
+    }
+
+    @Override
+    public void callbackBatch(Topic topic, List<Message> msgs) {
+        if (in != null && topic == in && out != null) {
+            double[] results = new double[msgs.size()];
+            int n = 0;
+            for (Message msg : msgs) {
+                if (!Double.isNaN(msg.asDouble)) {
+                    results[n++] = update(msg);
+                }
+            }
+            out.publishBatch(results, n);
+        }
+    }
+
+    private double update(Message msg) {
+        window.add(msg.asDouble, msg.timestamp);
+        switch (function) {
+            case SUM:
+                return window.sum();
+            case MEAN:
+                return window.mean();
+            case MIN:
+                return window.min();
+            case MAX:
+                return window.max();
+            default:
+                return window.variance();
+        }
+    }
+
+    @Override
+    public void writeState(DataOutput out) throws IOException {
+        window.writeState(out);
+    }
+
+    @Override
+    public void readState(DataInput in) throws IOException {
+        window.readState(in);
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    public SlidingWindow getWindow() {
+        return window;
+    }
+
+    @Override
+    public AgentOutput getOutput() {
+        return out;
+    }
+
+    @Override
+    public void close() {
+        if (in != null) {
+            in.unsubscribe(this);
+        }
+        if (out != null) {
+            out.getTopic().removePublisher(this);
+        }
+    }
+}
@@ -1,8 +1,29 @@
 package test;
 
+import java.util.List;
+
 public interface Agent {
     String getName();
     void reset();
     void callback(String topic, Message msg);
     void close();
+
+    // Receives a burst of messages from one topic, in publish order.
+    // Agents that can process a burst in one go override this.
+    default void callbackBatch(String topic, List<Message> msgs) {
+        for (Message msg : msgs) {
+            callback(topic, msg);
+        }
+    }
+
+    // Variant used by Topic.publish that passes the resolved topic handle.
+    // Agents that cache their topics override this and compare the topic reference instead of names.
+    default void callback(Topic topic, Message msg) {
+        callback(topic.name, msg);
+    }
+
+    // Handle variant of callbackBatch
+    default void callbackBatch(Topic topic, List<Message> msgs) {
+        callbackBatch(topic.name, msgs);
+    }
 }
@@ -0,0 +1,93 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * The output topic of a built-in agent. Normally a value is just published on the topic, but
+ * GraphCompiler can fuse downstream stages into it: the value then goes through those stages
+ * in the same call and only the chain's final topic delivers a message. The topics in between
+ * still record each intermediate value (last message, publish count, history) without
+ * delivering it, so observers reading them see the same data as in the unfused graph. They
+ * record it as a plain double; a Message is only built when getLastMessage() is called.
+ */
+public class AgentOutput {
+
+    // Downstream stages folded into this output and the topic their result goes to.
+    // bypassed[i] is the topic stages[i] reads, bypassed[0] being this output's own topic.
+    private static final class Route {
+        final DoubleUnaryOperator[] stages;
+        final Topic[] bypassed;
+        final Topic target;
+
+        Route(DoubleUnaryOperator[] stages, Topic[] bypassed, Topic target) {
+            this.stages = stages;
+            this.bypassed = bypassed;
+            this.target = target;
+        }
+
+        // Runs the value through the stages, recording it on each bypassed topic on the way
+        double apply(double value) {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < stages.length; i++) {
+                bypassed[i].recordBypassed(value, now);
+                value = stages[i].applyAsDouble(value);
+            }
+            return value;
+        }
+    }
+
+    private final Topic topic;
+    private volatile Route route; // null while not fused
+
+    public AgentOutput(Topic topic) {
+        this.topic = topic;
+    }
+
+    public Topic getTopic() {
+        return topic;
+    }
+
+    public void publish(double value) {
+        Route r = route;
+        if (r == null) {
+            topic.publish(new Message(value));
+        } else {
+            r.target.publish(new Message(r.apply(value)));
+        }
+    }
+
+    // Publishes the first n values as one batch
+    public void publishBatch(double[] values, int n) {
+        if (n == 0) {
+            return;
+        }
+        Route r = route;
+        List<Message> msgs = new ArrayList<>(n);
+        if (r == null) {
+            for (int i = 0; i < n; i++) {
+                msgs.add(new Message(values[i]));
+            }
+            topic.publishBatch(msgs);
+        } else {
+            for (int i = 0; i < n; i++) {
+                msgs.add(new Message(r.apply(values[i])));
+            }
+            r.target.publishBatch(msgs);
+        }
+    }
+
+    // Sends values through stages and on to target instead of delivering them on this output's topic
+    void fuse(DoubleUnaryOperator[] stages, Topic[] bypassed, Topic target) {
+        route = new Route(stages.clone(), bypassed.clone(), target);
+    }
+
+    void unfuse() {
+        route = null;
+    }
+
+    public boolean isFused() {
+        return route != null;
+    }
+}
@@ -0,0 +1,38 @@
+package test;
+
+import java.util.List;
+
+/**
+ * Decides which threads run the mailboxes of ParallelAgents.
+ * Whatever the implementation, a single agent never runs on two threads at once,
+ * so agents can keep plain fields without locks.
+ */
+public interface AgentScheduler {
+
+    // The agent was created and may receive messages from now on
+    void start(ParallelAgent agent);
+
+    // The agent's mailbox received a message
+    void signal(ParallelAgent agent);
+
+    // Starts a batch of agents built together; schedulers with a costly start() may overlap them
+    default void startAll(List<ParallelAgent> agents) {
+        for (ParallelAgent a : agents) {
+            a.start();
+        }
+    }
+
+    // The agent stopped accepting messages; returns once its last batch is done and it is closed
+    void stop(ParallelAgent agent);
+
+    // A scheduler that runs agents from its own queue takes the message here and returns true,
+    // and passes hops back to ParallelAgent.process. The default returns false and the message
+    // goes to the agent's mailbox.
+    default boolean offer(ParallelAgent agent, Topic topic, Message msg, int hops) {
+        return false;
+    }
+
+    // Releases threads owned by the scheduler itself
+    default void shutdown() {
+    }
+}
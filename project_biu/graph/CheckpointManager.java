@@ -0,0 +1,244 @@
+package test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the last value of every topic and the state of every Checkpointable agent to a
+ * binary file, and loads it back after a restart.
+ *
+ * A checkpoint first copies each agent's state into memory - briefly pausing only that agent,
+ * between two of its messages - and then writes the copies to a temporary file that replaces
+ * the previous checkpoint with one rename. Periodic checkpoints run on a background thread,
+ * so agents never wait for the disk.
+ *
+ * Agents are matched by a key that describes their definition (see GenericConfig), so a
+ * restarted process restores each agent into the agent created from the same config lines.
+ */
+public class CheckpointManager {
+
+    private static final int MAGIC = 0x434B5054; // "CKPT"
+    private static final int VERSION = 1;
+
+    // Last value of one topic as captured
+    private static final class TopicValue {
+        final String name;
+        final double value;
+        final long timestamp;
+
+        TopicValue(String name, Message msg) {
+            this.name = name;
+            this.value = msg.asDouble;
+            this.timestamp = msg.timestamp;
+        }
+    }
+
+    private final Path file;
+    private final Map<String, Agent> agents = new LinkedHashMap<>();
+    private ScheduledExecutorService timer;
+
+    public CheckpointManager(String file) {
+        this.file = Paths.get(file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // Adds an agent under its definition key; a ParallelAgent is snapshotted between messages
+    public synchronized void register(String key, Agent agent) {
+        agents.put(key, agent);
+    }
+
+    public synchronized void unregister(String key) {
+        agents.remove(key);
+    }
+
+    public synchronized void unregisterAll() {
+        agents.clear();
+    }
+
+    // Writes a checkpoint every intervalMillis on a background thread until stop()
+    public synchronized void start(long intervalMillis) {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                System.err.println("Failed to write checkpoint " + file + ": " + e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (timer != null) {
+            timer.shutdown();
+            timer = null;
+        }
+    }
+
+    // Captures the current state and writes it to the file, on the calling thread
+    public void checkpoint() throws IOException {
+        List<TopicValue> topics = new ArrayList<>();
+        for (Topic t : TopicManagerSingleton.get().getTopics()) {
+            topics.add(new TopicValue(t.name, t.getLastMessage()));
+        }
+        Map<String, byte[]> states = new LinkedHashMap<>();
+        for (Map.Entry<String, Agent> e : snapshotAgents().entrySet()) {
+            byte[] state = capture(e.getValue());
+            if (state != null) {
+                states.put(e.getKey(), state);
+            }
+        }
+        write(topics, states);
+    }
+
+    /**
+     * Loads the file, if there is one: sets the last value of every topic it names and hands
+     * the saved state to the registered agents with the same key.
+     *
+     * @return the number of agents restored, or -1 if there was no checkpoint to load
+     */
+    public int restore() throws IOException {
+        return restore(snapshotAgents(), true);
+    }
+
+    /**
+     * Restores only the registered agents with the given keys and leaves topics alone,
+     * e.g. for agents added to a running graph by a reload.
+     *
+     * @return the number of agents restored, or -1 if there was no checkpoint to load
+     */
+    public int restore(Collection<String> keys) throws IOException {
+        Map<String, Agent> targets = new HashMap<>();
+        synchronized (this) {
+            for (String key : keys) {
+                Agent a = agents.get(key);
+                if (a != null) {
+                    targets.put(key, a);
+                }
+            }
+        }
+        return targets.isEmpty() ? 0 : restore(targets, false);
+    }
+
+    private int restore(Map<String, Agent> targets, boolean topics) throws IOException {
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        int restored = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file.toFile())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a checkpoint file: " + file);
+            }
+            in.readLong(); // time of the checkpoint
+            TopicManagerSingleton.TopicManager tm = TopicManagerSingleton.get();
+            int topicCount = in.readInt();
+            for (int i = 0; i < topicCount; i++) {
+                String name = in.readUTF();
+                double value = in.readDouble();
+                long timestamp = in.readLong();
+                if (topics) {
+                    tm.getTopic(name).restoreLastMessage(new Message(value, timestamp));
+                }
+            }
+            int agentCount = in.readInt();
+            for (int i = 0; i < agentCount; i++) {
+                String key = in.readUTF();
+                byte[] state = new byte[in.readInt()];
+                in.readFully(state);
+                Agent agent = targets.get(key);
+                if (agent == null) {
+                    continue; // the agent is no longer in the config
+                }
+                try {
+                    restore(agent, state);
+                    restored++;
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Could not restore state of agent " + key + ": " + e);
+                }
+            }
+        }
+        return restored;
+    }
+
+    private synchronized Map<String, Agent> snapshotAgents() {
+        return new LinkedHashMap<>(agents);
+    }
+
+    // The agent's state as bytes, or null if it keeps none
+    private static byte[] capture(Agent agent) throws IOException {
+        if (agent instanceof ParallelAgent) {
+            return ((ParallelAgent) agent).captureState();
+        }
+        if (!(agent instanceof Checkpointable)) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ((Checkpointable) agent).writeState(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+
+    private static void restore(Agent agent, byte[] state) throws IOException {
+        if (agent instanceof ParallelAgent) {
+            ((ParallelAgent) agent).restoreState(state);
+        } else if (agent instanceof Checkpointable) {
+            ((Checkpointable) agent).readState(new DataInputStream(new ByteArrayInputStream(state)));
+        }
+    }
+
+    // Serialized by the lock so a periodic and an explicit checkpoint do not share the temp file
+    private synchronized void write(List<TopicValue> topics, Map<String, byte[]> states) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp.toFile())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(topics.size());
+            for (TopicValue t : topics) {
+                out.writeUTF(t.name);
+                out.writeDouble(t.value);
+                out.writeLong(t.timestamp);
+            }
+            out.writeInt(states.size());
+            for (Map.Entry<String, byte[]> e : states.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().length);
+                out.write(e.getValue());
+            }
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package test;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * An agent whose state CheckpointManager can save and restore after a restart.
+ * When the agent runs inside a ParallelAgent both methods are called between two messages,
+ * never while a callback runs, so implementations can read and write their fields directly.
+ */
+public interface Checkpointable extends Agent {
+
+    void writeState(DataOutput out) throws IOException;
+
+    // Replaces the current state with what writeState wrote
+    void readState(DataInput in) throws IOException;
+}
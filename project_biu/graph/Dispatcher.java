@@ -0,0 +1,203 @@
+package test;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs publishes as a loop instead of as nested recursion.
+ *
+ * The first publish on a thread delivers its message directly. Any publish made while that
+ * delivery is still running on the same thread - an agent publishing from inside its callback -
+ * is queued and delivered by the outer publish once the current delivery returns. Deep chains
+ * and cyclic graphs therefore run at constant stack depth.
+ *
+ * Each queued publish counts its hops from the outer publish. Work beyond the hop limit, or
+ * beyond the item limit of one outer publish, is dropped and counted instead of looping forever.
+ * A ParallelAgent carries the hop count of a message through its mailbox, so an outer publish
+ * made by its worker continues the count and cycles across threads hit the limit as well.
+ */
+public final class Dispatcher {
+
+    private static volatile int maxHops = 1_000_000;
+    private static volatile int maxItems = 10_000_000;
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static final ThreadLocal<Loop> LOOP = ThreadLocal.withInitial(Loop::new);
+
+    private Dispatcher() {}
+
+    // A publish waiting in the loop; exactly one of msg and msgs is set
+    private static final class Item {
+        final Topic topic;
+        final Message msg;
+        final List<Message> msgs;
+        final int hops;
+        final CompletableFuture<Void> done; // only for publishAsync
+
+        Item(Topic topic, Message msg, List<Message> msgs, int hops, CompletableFuture<Void> done) {
+            this.topic = topic;
+            this.msg = msg;
+            this.msgs = msgs;
+            this.hops = hops;
+            this.done = done;
+        }
+    }
+
+    private static final class Loop {
+        final ArrayDeque<Item> queue = new ArrayDeque<>();
+        boolean running;
+        int hops;      // hop count of the item being delivered
+        int items;     // items delivered for the current outer publish
+        int base;      // hop count an outer publish starts at, set while a worker runs a carried message
+        boolean warned;
+    }
+
+    // Maximum number of chained publishes from one outer publish
+    public static void setMaxHops(int hops) {
+        maxHops = hops;
+    }
+
+    public static int getMaxHops() {
+        return maxHops;
+    }
+
+    // Maximum number of queued publishes one outer publish may cause in total
+    public static void setMaxItems(int items) {
+        maxItems = items;
+    }
+
+    public static int getMaxItems() {
+        return maxItems;
+    }
+
+    // Publishes dropped because a limit was hit
+    public static long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // Hop count of the delivery running on this thread, for a message handed to another thread
+    static int currentHops() {
+        Loop loop = LOOP.get();
+        return loop.running ? loop.hops : loop.base;
+    }
+
+    // Makes outer publishes on this thread start at the given hop count; returns the previous one
+    static int setBaseHops(int hops) {
+        Loop loop = LOOP.get();
+        int prev = loop.base;
+        loop.base = hops;
+        return prev;
+    }
+
+    static void publish(Topic topic, Message msg) {
+        Loop loop = LOOP.get();
+        if (loop.running) {
+            enqueue(loop, new Item(topic, msg, null, loop.hops + 1, null));
+            return;
+        }
+        if (loop.base > maxHops) {
+            drop(loop, topic, loop.base, null);
+            return;
+        }
+        run(loop, () -> topic.deliver(msg));
+    }
+
+    static void publishBatch(Topic topic, List<Message> msgs) {
+        Loop loop = LOOP.get();
+        if (loop.running) {
+            enqueue(loop, new Item(topic, null, msgs, loop.hops + 1, null));
+            return;
+        }
+        if (loop.base > maxHops) {
+            drop(loop, topic, loop.base, null);
+            return;
+        }
+        run(loop, () -> topic.deliverBatch(msgs));
+    }
+
+    static CompletableFuture<Void> publishAsync(Topic topic, Message msg) {
+        Loop loop = LOOP.get();
+        if (loop.running) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            enqueue(loop, new Item(topic, msg, null, loop.hops + 1, done));
+            return done;
+        }
+        if (loop.base > maxHops) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            drop(loop, topic, loop.base, done);
+            return done;
+        }
+        CompletableFuture<?>[] result = new CompletableFuture<?>[1];
+        run(loop, () -> result[0] = topic.deliverAsync(msg));
+        @SuppressWarnings("unchecked")
+        CompletableFuture<Void> f = (CompletableFuture<Void>) result[0];
+        return f;
+    }
+
+    private static void enqueue(Loop loop, Item item) {
+        if (item.hops > maxHops || loop.items + loop.queue.size() >= maxItems) {
+            drop(loop, item.topic, item.hops, item.done);
+            return;
+        }
+        loop.queue.add(item);
+    }
+
+    private static void drop(Loop loop, Topic topic, int hops, CompletableFuture<Void> done) {
+        dropped.incrementAndGet();
+        if (!loop.warned) {
+            loop.warned = true;
+            System.err.println("Dispatcher limit reached publishing to " + topic.name
+                    + " (hops " + hops + "), dropping - is there a cycle in the graph?");
+        }
+        if (done != null) {
+            done.completeExceptionally(new IllegalStateException("Dispatcher limit reached"));
+        }
+    }
+
+    // Delivers the outer publish, then every publish it caused, in order
+    private static void run(Loop loop, Runnable first) {
+        loop.running = true;
+        loop.hops = loop.base;
+        loop.items = 0;
+        loop.warned = false;
+        try {
+            first.run();
+            Item item;
+            while ((item = loop.queue.poll()) != null) {
+                loop.hops = item.hops;
+                loop.items++;
+                deliver(item);
+            }
+        } finally {
+            loop.queue.clear(); // only non-empty if the outer delivery threw
+            loop.running = false;
+        }
+    }
+
+    // A failing subscriber of a queued publish must not abort the rest of the loop
+    private static void deliver(Item item) {
+        try {
+            if (item.msgs != null) {
+                item.topic.deliverBatch(item.msgs);
+            } else if (item.done != null) {
+                CompletableFuture<Void> f = item.topic.deliverAsync(item.msg);
+                f.whenComplete((v, ex) -> {
+                    if (ex != null) {
+                        item.done.completeExceptionally(ex);
+                    } else {
+                        item.done.complete(null);
+                    }
+                });
+            } else {
+                item.topic.deliver(item.msg);
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Delivery on topic " + item.topic.name + " failed: " + e);
+            if (item.done != null) {
+                item.done.completeExceptionally(e);
+            }
+        }
+    }
+}
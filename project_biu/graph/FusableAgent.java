@@ -0,0 +1,11 @@
+package test;
+
+/**
+ * An agent that publishes through an AgentOutput, so GraphCompiler may fold
+ * downstream stages into it.
+ */
+public interface FusableAgent extends Agent {
+
+    // The agent's output, or null if it publishes nothing
+    AgentOutput getOutput();
+}
@@ -3,19 +3,39 @@ package test;
 import java.util.Date;
 import java.nio.charset.StandardCharsets;
 
+/**
+ * An immutable message. The numeric value is the primary form for numeric
+ * payloads; the text and byte forms are only built the first time they are asked for.
+ */
 public class Message {
-    public final byte[] data;
-    public final String asText;
     public final double asDouble;
+    public final long timestamp;   // Creation time in epoch millis
+    public final String key;       // Partitioning key, null for unkeyed messages
+
+    // The fields of the original Message, kept so that existing callers still compile. They are
+    // filled for messages built from text or bytes, where those forms exist anyway; numeric
+    // messages leave them null. asText(), data() and date() work for every message.
+    @Deprecated
+    public final String asText;
+    @Deprecated
+    public final byte[] data;
+    @Deprecated
     public final Date date;
 
+    private String text;           // Built lazily for numeric messages (String is safe to share racily)
+    private volatile byte[] bytes; // Built lazily on first data() call
+
+    // The bytes are copied, so the caller may reuse its array
     public Message(byte[] data) {
-        this(new String(data, StandardCharsets.UTF_8));
+        this(new String(data, StandardCharsets.UTF_8), data.clone());
     }
 
     public Message(String text) {
-        this.data = text.getBytes(StandardCharsets.UTF_8);
-        this.asText = text;
+        this(text, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Message(String text, byte[] data) {
+        this.text = text;
         double val;
         try {
             val = Double.parseDouble(text);
@@ -23,10 +43,63 @@ public class Message {
             val = Double.NaN;
         }
         this.asDouble = val;
-        this.date = new Date();
+        this.timestamp = System.currentTimeMillis();
+        this.key = null;
+        this.asText = text;
+        this.data = data;
+        this.date = new Date(timestamp);
     }
 
     public Message(double val) {
-        this(Double.toString(val));
+        this(val, System.currentTimeMillis(), null);
+    }
+
+    // A numeric message with a key; on a partitioned topic all messages of a key stay in order
+    public Message(double val, String key) {
+        this(val, System.currentTimeMillis(), key);
+    }
+
+    // Rebuilds a message with its original creation time, e.g. when replaying history
+    Message(double val, long timestamp) {
+        this(val, timestamp, null);
+    }
+
+    private Message(double val, long timestamp, String key) {
+        this.asDouble = val;
+        this.timestamp = timestamp;
+        this.key = key;
+        this.asText = null;
+        this.data = null;
+        this.date = null;
+    }
+
+    // The message as text, e.g. "3.0" for numeric messages
+    public String asText() {
+        String t = text;
+        if (t == null) {
+            t = Double.toString(asDouble);
+            text = t;
+        }
+        return t;
+    }
+
+    // The message as UTF-8 bytes; a fresh copy on every call, so the message stays immutable
+    public byte[] data() {
+        byte[] d = bytes;
+        if (d == null) {
+            d = asText().getBytes(StandardCharsets.UTF_8);
+            bytes = d;
+        }
+        return d.clone();
+    }
+
+    // The creation time as a Date (allocated on every call, prefer timestamp)
+    public Date date() {
+        return new Date(timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return asText();
     }
 }
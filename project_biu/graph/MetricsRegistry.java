@@ -0,0 +1,72 @@
+package test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pull-based view of the pub/sub core. Topics count their own publishes and ParallelAgents
+ * time their callbacks; this class only collects the numbers when somebody polls.
+ */
+public class MetricsRegistry {
+
+    private static volatile boolean enabled = true;
+    private static final Set<ParallelAgent> agents = ConcurrentHashMap.newKeySet();
+
+    // Publish counts seen at the previous poll, for rates
+    private static final Map<String, Long> lastCounts = new ConcurrentHashMap<>();
+    private static long lastPollNanos = System.nanoTime();
+
+    private MetricsRegistry() {}
+
+    // Callback timing costs two nanoTime calls per dispatch; it can be switched off
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void register(ParallelAgent agent) {
+        agents.add(agent);
+    }
+
+    static void unregister(ParallelAgent agent) {
+        agents.remove(agent);
+    }
+
+    /**
+     * Returns the current value of every metric, keyed like "topic.A.published" or
+     * "agent.PlusAgent@1b6d3586.p99_ns". Rates are per second since the previous poll.
+     */
+    public static synchronized Map<String, Double> poll() {
+        Map<String, Double> out = new LinkedHashMap<>();
+        long now = System.nanoTime();
+        double seconds = Math.max(1e-9, (now - lastPollNanos) / 1e9);
+        lastPollNanos = now;
+
+        for (Topic t : TopicManagerSingleton.get().getTopics()) {
+            String key = "topic." + t.name;
+            long published = t.getPublishCount();
+            Long before = lastCounts.put(key, published);
+            out.put(key + ".published", (double) published);
+            out.put(key + ".rate", (published - (before == null ? 0 : before)) / seconds);
+            out.put(key + ".subscribers", (double) t.getSubscribers().size());
+        }
+
+        for (ParallelAgent pa : agents) {
+            String key = "agent." + pa.getName() + "@" + Integer.toHexString(System.identityHashCode(pa));
+            LatencyHistogram h = pa.getCallbackLatency();
+            out.put(key + ".messages", (double) pa.getProcessedCount());
+            out.put(key + ".queue_depth", (double) pa.getQueueDepth());
+            out.put(key + ".dropped", (double) pa.getDroppedCount());
+            out.put(key + ".mean_ns", h.getMean());
+            out.put(key + ".p50_ns", (double) h.getPercentile(50));
+            out.put(key + ".p99_ns", (double) h.getPercentile(99));
+            out.put(key + ".max_ns", (double) h.getMax());
+        }
+        return out;
+    }
+}
@@ -1,9 +1,67 @@
 package test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Wraps an agent with a bounded mailbox.
+ * Publishers only enqueue into the mailbox; an AgentScheduler decides which thread
+ * drains it, and the wrapped agent's callback always runs one message at a time.
+ */
 public class ParallelAgent implements Agent {
+
+    /**
+     * What callback does when the mailbox is full.
+     */
+    public enum OverflowPolicy {
+        BLOCK,       // wait until the worker frees a slot
+        DROP_OLDEST, // discard the oldest queued message to make room
+        DROP_NEWEST, // discard the incoming message
+        FAIL         // throw IllegalStateException to the publisher
+    }
+
+    // A message waiting in the mailbox together with the topic it came from and its Dispatcher hop count
+    private static final class Envelope {
+        final Topic topic;
+        final Message msg;
+        final int hops;
+
+        Envelope(Topic topic, Message msg, int hops) {
+            this.topic = topic;
+            this.msg = msg;
+            this.hops = hops;
+        }
+    }
+
     private final Agent agent;
-    private final Thread thread;
+    private final BlockingQueue<Envelope> mailbox;
+    private final OverflowPolicy policy;
+    private final AtomicLong dropped = new AtomicLong();
+    private final LongAdder processed = new LongAdder();
+    private final LatencyHistogram callbackLatency = new LatencyHistogram(); // time per callback/callbackBatch call
+    private final AgentScheduler scheduler;
+    private final AtomicBoolean claimed = new AtomicBoolean(); // Set while a scheduler thread drains the mailbox
+    private final Object stateLock = new Object(); // Held while the wrapped agent runs, so checkpoints see whole messages
+    private final List<Topic> topics = new ArrayList<>(2); // topics where this wrapper took the agent's place
     private volatile boolean running = true;
+    private boolean started;
+    private volatile List<Envelope> held = new ArrayList<>(); // messages that arrived before start(), null after it
+    private final AtomicInteger pending = new AtomicInteger(); // messages taken but not yet processed
+    private volatile Agent forward;                            // set by retire(): later messages go there
 
     // Static counter to track active threads
     private static volatile int activeThreadCount = 0;
@@ -19,27 +77,173 @@ public class ParallelAgent implements Agent {
     }
 
     public ParallelAgent(Agent agent, int capacity) {
+        this(agent, capacity, OverflowPolicy.BLOCK);
+    }
+
+    public ParallelAgent(Agent agent, int capacity, OverflowPolicy policy) {
+        this(agent, capacity, policy, ThreadPerAgentScheduler.get());
+    }
+
+    public ParallelAgent(Agent agent, int capacity, OverflowPolicy policy, AgentScheduler scheduler) {
+        this(agent, capacity, policy, scheduler, TopicManagerSingleton.get().getTopics(), true);
+    }
+
+    /**
+     * Wraps an agent known to use only the given topics, which spares the scan over every topic.
+     * With start false the agent is only handed to the scheduler by start(), so a caller
+     * building many agents can start them together (see AgentScheduler.startAll). Messages
+     * arriving before that are held back and passed on by start(), so the agent does not run
+     * before it is started, whatever the scheduler.
+     */
+    ParallelAgent(Agent agent, int capacity, OverflowPolicy policy, AgentScheduler scheduler,
+                  Collection<Topic> candidates, boolean start) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Mailbox capacity must be positive: " + capacity);
+        }
         this.agent = agent;
+        this.mailbox = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        this.scheduler = scheduler;
 
-        thread = new Thread(() -> {
-            try {
-                incrementThreadCount(); // Increment thread counter
-                agent.reset(); // start agent logic
+        // The wrapped agent subscribed itself in its constructor - take its place on those
+        // topics so that publishers hand messages to the mailbox instead of the agent.
+        // Publisher entries are swapped too so the graph sees one node per agent.
+        for (Topic t : candidates) {
+            boolean used = false;
+            if (t.getSubscribers().contains(agent)) {
+                t.unsubscribe(agent);
+                t.subscribe(this);
+                used = true;
+            }
+            if (t.getPublishers().contains(agent)) {
+                t.removePublisher(agent);
+                t.addPublisher(this);
+                used = true;
+            }
+            if (used && !topics.contains(t)) {
+                topics.add(t);
+            }
+        }
 
-                while (running) {
-                    try {
-                        Thread.sleep(10); // or do something useful
-                    } catch (InterruptedException e) {
-                        break;
-                    }
+        MetricsRegistry.register(this);
+        if (start) {
+            start();
+        }
+    }
+
+    // Subscribes this wrapper to t in the place of the given placeholder (see Topic.replaceSubscriber)
+    void attach(Topic t, Agent placeholder) {
+        if (!topics.contains(t)) {
+            topics.add(t);
+        }
+        t.replaceSubscriber(placeholder, this);
+    }
+
+    // Hands the agent to its scheduler; only the first call has an effect
+    void start() {
+        synchronized (this) {
+            if (started || !running) {
+                return;
+            }
+            started = true;
+            scheduler.start(this);
+        }
+        // Pass on what was held back, in arrival order. Messages that come in meanwhile are
+        // still held and go out in the next round; the hold ends once a round finds none.
+        while (true) {
+            List<Envelope> batch;
+            synchronized (this) {
+                batch = held;
+                if (batch == null || batch.isEmpty()) { // null once close() dropped them
+                    held = null;
+                    return;
                 }
-            } finally {
-                agent.close(); // cleanup when thread ends
-                decrementThreadCount(); // Decrement thread counter
+                held = new ArrayList<>();
+            }
+            for (Envelope e : batch) {
+                if (!running) {
+                    pending.decrementAndGet();
+                } else if (!scheduler.offer(this, e.topic, e.msg, e.hops)) {
+                    enqueue(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes every later message go to forwardTo instead of this agent, then waits until the
+     * messages taken before have all been processed. The wrapped agent's state is final from
+     * then on and can be captured before the agent is closed (see LazyAgent).
+     */
+    void retire(Agent forwardTo) {
+        start(); // held messages are only processed once started
+        forward = forwardTo;
+        // A callback that missed forward has already counted its message in pending
+        while (pending.get() > 0 && running) {
+            LockSupport.parkNanos(100_000);
+        }
+    }
+
+    // A scheduler that took a message through offer() and will never run it reports it here
+    void discard() {
+        pending.decrementAndGet();
+    }
+
+    // True if the message was held back because the agent has not been started yet
+    private boolean hold(Topic topic, Message msg, int hops) {
+        if (held == null) {
+            return false;
+        }
+        synchronized (this) {
+            List<Envelope> h = held;
+            if (h == null) {
+                return false;
+            }
+            h.add(new Envelope(topic, msg, hops));
+            return true;
+        }
+    }
+
+    // Body of a dedicated worker thread: sleeps on the mailbox until the agent is closed
+    void runLoop() {
+        try {
+            incrementThreadCount(); // Increment thread counter
+
+            List<Envelope> batch = new ArrayList<>();
+            while (running) {
+                try {
+                    batch.add(mailbox.take()); // sleep until there is work
+                } catch (InterruptedException ex) {
+                    break;
+                }
+                mailbox.drainTo(batch); // grab whatever else piled up meanwhile
+                dispatch(batch);
+                batch.clear();
             }
-        });
+        } finally {
+            agent.close(); // cleanup when thread ends
+            decrementThreadCount(); // Decrement thread counter
+        }
+    }
 
-        thread.start();
+    // Processes up to max queued messages on the calling thread, for pooled schedulers
+    void drain(int max) {
+        List<Envelope> batch = new ArrayList<>();
+        mailbox.drainTo(batch, max);
+        dispatch(batch);
+    }
+
+    // Pooled schedulers claim the agent before draining it so that only one thread runs it at a time
+    boolean tryClaim() {
+        return claimed.compareAndSet(false, true);
+    }
+
+    void release() {
+        claimed.set(false);
+    }
+
+    boolean hasWork() {
+        return running && !mailbox.isEmpty();
     }
 
     @Override
@@ -52,19 +256,258 @@ public class ParallelAgent implements Agent {
         agent.reset();
     }
 
+    // Hands consecutive messages of the same topic to the agent as one batch
+    private void dispatch(List<Envelope> batch) {
+        synchronized (stateLock) {
+            dispatchLocked(batch);
+        }
+    }
+
+    private void dispatchLocked(List<Envelope> batch) {
+        int start = 0;
+        while (start < batch.size()) {
+            Topic topic = batch.get(start).topic;
+            int hops = batch.get(start).hops;
+            int end = start + 1;
+            while (end < batch.size() && batch.get(end).topic == topic) {
+                hops = Math.max(hops, batch.get(end).hops);
+                end++;
+            }
+            // What the agent publishes now is one hop further than what it received
+            int base = Dispatcher.setBaseHops(hops + 1);
+            long t0 = MetricsRegistry.isEnabled() ? System.nanoTime() : 0;
+            try {
+                if (end - start == 1) {
+                    agent.callback(topic, batch.get(start).msg);
+                } else {
+                    List<Message> msgs = new ArrayList<>(end - start);
+                    for (int i = start; i < end; i++) {
+                        msgs.add(batch.get(i).msg);
+                    }
+                    agent.callbackBatch(topic, msgs);
+                }
+                if (t0 != 0) {
+                    callbackLatency.record(System.nanoTime() - t0);
+                }
+                processed.add(end - start);
+            } catch (RuntimeException ex) {
+                System.err.println("Agent " + agent.getName() + " failed on topic " + topic.name + ": " + ex);
+            } finally {
+                Dispatcher.setBaseHops(base);
+                pending.addAndGet(start - end);
+            }
+            start = end;
+        }
+    }
+
+    // Runs one message a scheduler passed by the mailbox, on the scheduler's thread
+    void process(Topic topic, Message msg, int hops) {
+        if (!running) {
+            pending.decrementAndGet();
+            return;
+        }
+        int base = Dispatcher.setBaseHops(hops + 1);
+        long t0 = MetricsRegistry.isEnabled() ? System.nanoTime() : 0;
+        synchronized (stateLock) {
+            try {
+                agent.callback(topic, msg);
+                if (t0 != 0) {
+                    callbackLatency.record(System.nanoTime() - t0);
+                }
+                processed.increment();
+            } catch (RuntimeException ex) {
+                System.err.println("Agent " + agent.getName() + " failed on topic " + topic.name + ": " + ex);
+            } finally {
+                Dispatcher.setBaseHops(base);
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    // Copies the wrapped agent's state between two messages; null if it keeps none
+    byte[] captureState() throws IOException {
+        if (!(agent instanceof Checkpointable)) {
+            return null;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        synchronized (stateLock) {
+            ((Checkpointable) agent).writeState(new DataOutputStream(bytes));
+        }
+        return bytes.toByteArray();
+    }
+
+    void restoreState(byte[] state) throws IOException {
+        if (agent instanceof Checkpointable) {
+            synchronized (stateLock) {
+                ((Checkpointable) agent).readState(new DataInputStream(new ByteArrayInputStream(state)));
+            }
+        }
+    }
+
+    // Called on the publisher's thread - only hands the message to the worker
+    @Override
+    public void callback(Topic topic, Message msg) {
+        accept(topic, msg);
+    }
+
+    // Called on the publisher's thread - queues the whole burst for the worker
+    @Override
+    public void callbackBatch(Topic topic, List<Message> msgs) {
+        for (int i = 0; i < msgs.size(); i++) {
+            accept(topic, msgs.get(i));
+        }
+    }
+
+    // Counts the message as pending before anything else, so retire() either sees it or it sees forward
+    private void accept(Topic topic, Message msg) {
+        pending.incrementAndGet();
+        Agent f = forward;
+        if (f != null) {
+            pending.decrementAndGet();
+            f.callback(topic, msg); // a publisher that still held this retired agent
+            return;
+        }
+        if (!running) {
+            pending.decrementAndGet();
+            return;
+        }
+        int hops = Dispatcher.currentHops();
+        if (!hold(topic, msg, hops) && !scheduler.offer(this, topic, msg, hops)) {
+            enqueue(new Envelope(topic, msg, hops));
+        }
+    }
+
+    // Name-based entry points for callers that do not hold a topic handle
     @Override
     public void callback(String topic, Message msg) {
-        agent.callback(topic, msg);
+        callback(TopicManagerSingleton.get().getTopic(topic), msg);
+    }
+
+    @Override
+    public void callbackBatch(String topic, List<Message> msgs) {
+        callbackBatch(TopicManagerSingleton.get().getTopic(topic), msgs);
+    }
+
+    private void enqueue(Envelope e) {
+        switch (policy) {
+            case BLOCK:
+                if (!mailbox.offer(e)) {
+                    try {
+                        // managedBlock lets a pool publisher be replaced while it waits, plain put elsewhere
+                        ForkJoinPool.managedBlock(new Put(e));
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        dropped.incrementAndGet();
+                        pending.decrementAndGet();
+                        return;
+                    }
+                }
+                break;
+            case DROP_OLDEST:
+                while (!mailbox.offer(e)) {
+                    if (mailbox.poll() != null) {
+                        dropped.incrementAndGet();
+                        pending.decrementAndGet();
+                    }
+                }
+                break;
+            case DROP_NEWEST:
+                if (!mailbox.offer(e)) {
+                    dropped.incrementAndGet();
+                    pending.decrementAndGet();
+                }
+                break;
+            case FAIL:
+                if (!mailbox.offer(e)) {
+                    dropped.incrementAndGet();
+                    pending.decrementAndGet();
+                    throw new IllegalStateException("Mailbox of agent " + agent.getName() + " is full");
+                }
+                break;
+        }
+        scheduler.signal(this);
+    }
+
+    // Blocking put that cooperates with ForkJoinPool when the publisher is a pool worker
+    private final class Put implements ForkJoinPool.ManagedBlocker {
+        private final Envelope e;
+        private boolean done;
+
+        Put(Envelope e) {
+            this.e = e;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (!done) {
+                mailbox.put(e);
+                done = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done || (done = mailbox.offer(e));
+        }
+    }
+
+    // Number of messages waiting to be processed
+    public int getQueueDepth() {
+        return mailbox.size();
+    }
+
+    // Number of messages discarded because the mailbox was full
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // Number of messages the wrapped agent has processed
+    public long getProcessedCount() {
+        return processed.sum();
+    }
+
+    // Time spent in each callback or callbackBatch call of the wrapped agent
+    public LatencyHistogram getCallbackLatency() {
+        return callbackLatency;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return policy;
+    }
+
+    // Returns the wrapped agent
+    public Agent getAgent() {
+        return agent;
     }
 
     @Override
     public void close() {
         running = false;
-        thread.interrupt();
-        try {
-            thread.join();  // wait for thread to finish cleanly
-        } catch (InterruptedException e) {
-            // ignore
+        MetricsRegistry.unregister(this);
+        for (Topic t : topics) {
+            t.unsubscribe(this);
+            t.removePublisher(this);
+        }
+        boolean wasStarted;
+        synchronized (this) {
+            wasStarted = started;
+            started = true; // a late start() must not run a closed agent
+            held = null;
+        }
+        if (wasStarted) {
+            scheduler.stop(this);
+        } else {
+            agent.close();
         }
     }
-}
\ No newline at end of file
+
+    public AgentScheduler getScheduler() {
+        return scheduler;
+    }
+
+    // Number of dedicated worker threads currently running
+    public static int getActiveThreadCount() {
+        return activeThreadCount;
+    }
+}
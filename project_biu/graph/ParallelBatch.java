@@ -0,0 +1,60 @@
+package test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs a one-off batch of tasks on a few short-lived threads.
+ *
+ * Used for large config builds and starts instead of a shared pool, whose idle workers would
+ * stay alive and show up in the thread count after the config is closed. Every helper thread
+ * has ended by the time run() returns.
+ */
+final class ParallelBatch {
+
+    private ParallelBatch() {}
+
+    // Number of threads run() uses for a batch of the given size, the calling thread included
+    static int threadsFor(int count) {
+        return Math.max(1, Math.min(count, Runtime.getRuntime().availableProcessors()));
+    }
+
+    // Calls task for every index below count; returns once all calls are done
+    static void run(int count, IntConsumer task) {
+        AtomicInteger next = new AtomicInteger();
+        Runnable worker = () -> {
+            int i;
+            while ((i = next.getAndIncrement()) < count) {
+                task.accept(i);
+            }
+        };
+        Thread[] helpers = new Thread[threadsFor(count) - 1];
+        for (int t = 0; t < helpers.length; t++) {
+            helpers[t] = new Thread(worker, "batch-" + t);
+            helpers[t].start();
+        }
+        RuntimeException failure = null;
+        try {
+            worker.run(); // the calling thread takes its share too
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        boolean interrupted = false;
+        for (Thread t : helpers) {
+            while (true) {
+                try {
+                    t.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
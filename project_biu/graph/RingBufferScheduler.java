@@ -0,0 +1,283 @@
+package test;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs every agent on one event-loop thread fed by a preallocated ring buffer.
+ *
+ * ParallelAgents hand their messages straight to the ring instead of to their mailbox.
+ * Any thread may publish: a producer claims a sequence number with one atomic increment,
+ * fills the slot and marks it published; the loop takes slots strictly in sequence order.
+ * The slots are allocated once and reused, so moving a message costs no allocation, and with
+ * a single outside publisher the agents always run in the same order.
+ *
+ * The loop cannot wait for itself to make room, so when an agent running on the loop publishes
+ * into a full ring the message goes to an overflow queue owned by the loop instead, and moves
+ * into the ring, in order, as slots free up.
+ */
+public class RingBufferScheduler implements AgentScheduler {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    // Idle loop: spin, then yield, then park for a short while
+    private static final int SPIN = 1000;
+    private static final int YIELD = 100;
+    private static final long PARK_NANOS = 50_000;
+
+    private static RingBufferScheduler shared;
+
+    // One preallocated event; either a message for an agent or a control action
+    private static final class Slot {
+        ParallelAgent agent;
+        Topic topic;
+        Message msg;
+        int hops;
+        Runnable control;
+    }
+
+    private final Slot[] slots;
+    private final AtomicLongArray published; // sequence currently held by each slot, -1 if none yet
+    private final int mask;
+    private final AtomicLong claim = new AtomicLong(); // next sequence handed to a producer
+    private volatile long consumed = 0;                // every sequence below this has left the ring
+    private volatile boolean waiting;                  // set while the loop is parked
+    private volatile boolean running = true;
+    private final ArrayDeque<Object> overflow = new ArrayDeque<>(); // agent, topic, msg, hops; loop thread only
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread loop;
+
+    public RingBufferScheduler() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // capacity is rounded up to a power of two
+    public RingBufferScheduler(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Ring capacity must be positive: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Slot[size];
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            published.set(i, -1);
+        }
+        this.mask = size - 1;
+        this.loop = new Thread(this::runLoop, "ring-engine");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    // A lazily created engine shared by every config that asks for ring mode
+    public static synchronized RingBufferScheduler shared() {
+        if (shared == null) {
+            shared = new RingBufferScheduler();
+        }
+        return shared;
+    }
+
+    @Override
+    public void start(ParallelAgent agent) {
+        // Nothing to set up - the agent runs when its first message arrives
+    }
+
+    @Override
+    public void signal(ParallelAgent agent) {
+        // Nothing reaches the mailbox - offer() takes every message
+    }
+
+    @Override
+    public boolean offer(ParallelAgent agent, Topic topic, Message msg, int hops) {
+        if (!running) {
+            dropped.incrementAndGet();
+            agent.discard();
+            return true;
+        }
+        if (Thread.currentThread() == loop) {
+            // The loop must never wait for room it would have to make itself
+            long seq = overflow.isEmpty() ? tryClaim() : -1;
+            if (seq < 0) {
+                overflow.add(agent);
+                overflow.add(topic);
+                overflow.add(msg);
+                overflow.add(hops);
+                spilled.incrementAndGet();
+            } else {
+                write(seq, agent, topic, msg, hops, null);
+            }
+            return true;
+        }
+        long seq = claim.getAndIncrement();
+        awaitRoom(seq);
+        write(seq, agent, topic, msg, hops, null);
+        return true;
+    }
+
+    @Override
+    public void stop(ParallelAgent agent) {
+        if (Thread.currentThread() == loop || !running) {
+            agent.getAgent().close();
+            return;
+        }
+        // Close it on the loop, after the messages already in the ring
+        CountDownLatch done = new CountDownLatch(1);
+        long seq = claim.getAndIncrement();
+        awaitRoom(seq);
+        write(seq, null, null, null, 0, () -> {
+            try {
+                agent.getAgent().close();
+            } finally {
+                done.countDown();
+            }
+        });
+        boolean interrupted = false;
+        while (done.getCount() > 0 && loop.isAlive()) {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(loop);
+        try {
+            loop.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Claims the next sequence if its slot is free, otherwise returns -1
+    private long tryClaim() {
+        long seq;
+        do {
+            seq = claim.get();
+            if (seq - consumed >= slots.length) {
+                return -1;
+            }
+        } while (!claim.compareAndSet(seq, seq + 1));
+        return seq;
+    }
+
+    // Moves queued overflow into the ring while there is room; loop thread only
+    private void refill() {
+        while (!overflow.isEmpty()) {
+            long seq = tryClaim();
+            if (seq < 0) {
+                return;
+            }
+            write(seq, (ParallelAgent) overflow.poll(), (Topic) overflow.poll(), (Message) overflow.poll(),
+                    (Integer) overflow.poll(), null);
+        }
+    }
+
+    // Waits until the slot for seq has been taken by the loop
+    private void awaitRoom(long seq) {
+        int spins = 0;
+        while (seq - consumed >= slots.length) {
+            if (++spins < SPIN) {
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+        }
+    }
+
+    private void write(long seq, ParallelAgent agent, Topic topic, Message msg, int hops, Runnable control) {
+        int i = (int) seq & mask;
+        Slot s = slots[i];
+        s.agent = agent;
+        s.topic = topic;
+        s.msg = msg;
+        s.hops = hops;
+        s.control = control;
+        published.set(i, seq); // makes the slot fields visible to the loop
+        if (waiting) {
+            LockSupport.unpark(loop);
+        }
+    }
+
+    private void runLoop() {
+        long next = 0;
+        int idle = 0;
+        while (running) {
+            if (!overflow.isEmpty()) {
+                refill();
+            }
+            int i = (int) next & mask;
+            if (published.get(i) != next) {
+                if (++idle < SPIN) {
+                    Thread.onSpinWait();
+                } else if (idle < SPIN + YIELD) {
+                    Thread.yield();
+                } else {
+                    waiting = true;
+                    if (published.get(i) != next && running) {
+                        LockSupport.parkNanos(PARK_NANOS);
+                    }
+                    waiting = false;
+                }
+                continue;
+            }
+            idle = 0;
+            Slot s = slots[i];
+            ParallelAgent agent = s.agent;
+            Topic topic = s.topic;
+            Message msg = s.msg;
+            int hops = s.hops;
+            Runnable control = s.control;
+            // Drop the references so the ring does not keep old messages alive, then free the slot
+            s.agent = null;
+            s.topic = null;
+            s.msg = null;
+            s.control = null;
+            consumed = ++next;
+            if (control != null) {
+                try {
+                    control.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Ring engine control action failed: " + e);
+                }
+            } else {
+                agent.process(topic, msg, hops);
+            }
+        }
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    // Events waiting in the ring
+    public long getBacklog() {
+        return Math.max(0, claim.get() - consumed);
+    }
+
+    // Messages the loop put in its overflow queue because the ring was full
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    // Messages offered after shutdown
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public boolean isLoopThread() {
+        return Thread.currentThread() == loop;
+    }
+}
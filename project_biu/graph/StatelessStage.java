@@ -0,0 +1,12 @@
+package test;
+
+/**
+ * A fusable agent with one input topic whose output depends only on the current input value.
+ * Such an agent can run inline in its upstream agent's call without changing any result.
+ */
+public interface StatelessStage extends FusableAgent {
+
+    Topic getInputTopic();
+
+    double apply(double value);
+}
@@ -0,0 +1,120 @@
+package test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The classic model - every agent owns a dedicated thread that sleeps on its mailbox.
+ * The threads are either platform threads or, with virtual(), virtual threads, which keep
+ * the same simple model for graphs with many mostly idle agents.
+ */
+public class ThreadPerAgentScheduler implements AgentScheduler {
+
+    private static final int PARALLEL_START = 256;
+
+    private static final ThreadPerAgentScheduler instance = new ThreadPerAgentScheduler(Thread::new, false);
+    private static ThreadPerAgentScheduler virtualInstance;
+
+    // Thread.activeCount() does not see virtual threads, so they are counted here
+    private static final AtomicInteger activeVirtualThreads = new AtomicInteger();
+
+    private final Map<ParallelAgent, Thread> threads = new ConcurrentHashMap<>();
+    private final ThreadFactory factory;
+    private final boolean virtual;
+
+    private ThreadPerAgentScheduler(ThreadFactory factory, boolean virtual) {
+        this.factory = factory;
+        this.virtual = virtual;
+    }
+
+    // Platform thread per agent
+    public static ThreadPerAgentScheduler get() {
+        return instance;
+    }
+
+    // Virtual thread per agent. Falls back to platform threads on a JVM without virtual threads.
+    public static synchronized ThreadPerAgentScheduler virtual() {
+        if (virtualInstance == null) {
+            ThreadFactory f = virtualThreadFactory();
+            if (f == null) {
+                System.err.println("Virtual threads are not available on this JVM, using platform threads");
+                virtualInstance = instance;
+            } else {
+                virtualInstance = new ThreadPerAgentScheduler(f, true);
+            }
+        }
+        return virtualInstance;
+    }
+
+    // Thread.ofVirtual().factory(), looked up reflectively so the code still runs on older JVMs
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    // Number of agent workers currently running on virtual threads
+    public static int getActiveVirtualThreadCount() {
+        return activeVirtualThreads.get();
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public void start(ParallelAgent agent) {
+        // No reset: the agent was just built, and a checkpoint may have restored its state already
+        Runnable body = agent::runLoop;
+        if (virtual) {
+            // Counted from start() like Thread.activeCount() counts a started thread right away
+            activeVirtualThreads.incrementAndGet();
+            body = () -> {
+                try {
+                    agent.runLoop();
+                } finally {
+                    activeVirtualThreads.decrementAndGet();
+                }
+            };
+        }
+        Thread thread = factory.newThread(body);
+        threads.put(agent, thread);
+        thread.start();
+    }
+
+    // Thread creation dominates large starts, so big batches are started from several threads
+    @Override
+    public void startAll(List<ParallelAgent> agents) {
+        if (agents.size() < PARALLEL_START) {
+            AgentScheduler.super.startAll(agents);
+        } else {
+            ParallelBatch.run(agents.size(), i -> agents.get(i).start());
+        }
+    }
+
+    @Override
+    public void signal(ParallelAgent agent) {
+        // The worker is blocked on the mailbox and wakes up by itself
+    }
+
+    @Override
+    public void stop(ParallelAgent agent) {
+        Thread thread = threads.remove(agent);
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join();  // wait for thread to finish cleanly
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
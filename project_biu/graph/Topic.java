@@ -1,54 +1,279 @@
 package test;
 
-import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class represents a topic that agents can subscribe to or publish messages on.
+ * Subscribers and publishers are kept in immutable arrays that are replaced atomically
+ * on every change, so publish can read them without locks while agents come and go.
  */
 public class Topic {
 
-    public final String name;                       // The name of the topic
-    public List<Agent> subs = new ArrayList<>();    // List of subscribers (agents who listen)
-    public List<Agent> pubs = new ArrayList<>();    // List of publishers (agents who send messages)
-    private Message lastMessage = new Message(0.0); // Keeps the last message sent on this topic
+    private static final Agent[] NONE = new Agent[0];
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    // Shared pool for parallel fan-out, can be replaced with setDeliveryPool
+    private static volatile Executor deliveryPool = ForkJoinPool.commonPool();
+
+    public final String name;                                           // The name of the topic
+    public final int id;                                                // Dense id from TopicManager, -1 if unmanaged
+    private final AtomicReference<Agent[]> subs = new AtomicReference<>(NONE); // Subscribers (agents who listen)
+    private final AtomicReference<Agent[]> pubs = new AtomicReference<>(NONE); // Publishers (agents who send messages)
+    private volatile Message lastMessage;                               // Keeps the last message sent on this topic
+    private volatile double bypassValue;                                // Last value a fused chain recorded here,
+    private volatile long bypassTime;                                   //   kept as primitives (see recordBypassed)
+    private volatile long bypassSeq;                                    // Seqlock over the two: odd while written
+    private volatile boolean bypassNewer;                               // The bypassed value is newer than lastMessage
+    private volatile TopicHistory history;                              // Last N values, null unless enabled
+    private volatile int parallelThreshold = Integer.MAX_VALUE;         // Fan out in parallel above this many subscribers
+    private final LongAdder published = new LongAdder();                // Messages published so far, for MetricsRegistry
+    private volatile Topic[] partitions;                                // Set when this is a partitioned logical topic
+    private final AtomicInteger roundRobin = new AtomicInteger();       // Spreads unkeyed messages over partitions
 
     // Constructor - set the topic name and initialize with a default message
     public Topic(String name) {
+        this(name, -1);
+    }
+
+    // Constructor used by TopicManager, which hands out the ids
+    Topic(String name, int id) {
         this.name = name;
+        this.id = id;
         this.lastMessage = new Message(0); // Set some default message
     }
 
     // Add agent as subscriber (only if not already in the list)
     public void subscribe(Agent sub) {
-        if (!subs.contains(sub)) {
-            subs.add(sub);
+        if (id >= 0 && TopicManagerSingleton.get().deferSubscribe(this)) {
+            return; // an agent is being built for a placeholder, which subscribes it later
+        }
+        if (add(subs, sub) && id >= 0) {
+            TopicManagerSingleton.get().fireSubscribed(this, sub, true);
         }
     }
 
     // Remove agent from subscriber list
     public void unsubscribe(Agent unSub) {
-        subs.remove(unSub);
+        if (remove(subs, unSub) && id >= 0) {
+            TopicManagerSingleton.get().fireSubscribed(this, unSub, false);
+        }
     }
 
-    // Send a message to all subscribers
+    // Send a message to all subscribers. Returns once every subscriber got it, unless it is called
+    // from inside another delivery on this thread - then it is queued and delivered right after
+    // that one (see Dispatcher), which keeps deep and cyclic graphs at constant stack depth.
+    // On a partitioned topic the message also goes to the subscribers of one partition.
     public void publish(Message msg) {
-        lastMessage = msg; // Save the message
-        for (Agent agent : subs) {
-            agent.callback(this.name, msg); // Call each subscriber's callback method
+        Dispatcher.publish(this, msg);
+    }
+
+    // Like publish, but a parallel fan-out does not wait - the future completes when delivery finishes.
+    // Small subscriber sets are still delivered inline and get an already completed future.
+    public CompletableFuture<Void> publishAsync(Message msg) {
+        return Dispatcher.publishAsync(this, msg);
+    }
+
+    // Send a burst of messages to all subscribers with one fan-out instead of one per message
+    public void publishBatch(List<Message> msgs) {
+        if (msgs.isEmpty()) {
+            return;
+        }
+        Dispatcher.publishBatch(this, msgs);
+    }
+
+    // The actual delivery of publish, run by Dispatcher
+    void deliver(Message msg) {
+        Agent[] snapshot = record(msg); // Membership changes during delivery are seen by the next publish
+        route(msg);
+        if (snapshot.length > parallelThreshold) {
+            fanOut(snapshot, msg, null).join();
+            return;
+        }
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i].callback(this, msg); // Call each subscriber's callback method
+        }
+    }
+
+    CompletableFuture<Void> deliverAsync(Message msg) {
+        if (subs.get().length <= parallelThreshold) {
+            deliver(msg);
+            return DONE;
+        }
+        Agent[] snapshot = record(msg);
+        route(msg);
+        return fanOut(snapshot, msg, null);
+    }
+
+    void deliverBatch(List<Message> msgs) {
+        published.add(msgs.size() - 1); // record() below counts the last one
+        TopicHistory h = history;
+        if (h != null) {
+            for (int i = 0; i < msgs.size() - 1; i++) {
+                h.record(msgs.get(i));
+            }
+        }
+        Agent[] snapshot = record(msgs.get(msgs.size() - 1));
+        Topic[] parts = partitions;
+        if (parts != null) {
+            publishPartitioned(parts, msgs);
+        }
+        if (snapshot.length > parallelThreshold) {
+            fanOut(snapshot, null, msgs).join();
+            return;
+        }
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i].callbackBatch(this, msgs);
+        }
+    }
+
+    // Saves the message as the last one (and in the history) and returns the subscribers to deliver to
+    private Agent[] record(Message msg) {
+        lastMessage = msg;
+        if (bypassNewer) {
+            bypassNewer = false;
+        }
+        published.increment();
+        TopicHistory h = history;
+        if (h != null) {
+            h.record(msg);
+        }
+        return subs.get();
+    }
+
+    // Records a value that a fused chain computed for this topic but delivers it to nobody (see
+    // AgentOutput). No Message is built here; getLastMessage() builds one if somebody asks.
+    void recordBypassed(double value, long timestamp) {
+        synchronized (this) { // a head's columnar path may run beside its worker
+            long seq = bypassSeq;
+            bypassSeq = seq + 1;
+            bypassValue = value;
+            bypassTime = timestamp;
+            bypassSeq = seq + 2;
+            bypassNewer = true;
+        }
+        published.increment();
+        TopicHistory h = history;
+        if (h != null) {
+            h.record(value, timestamp);
+        }
+    }
+
+    // Delivers to every subscriber on the delivery pool; either msg or msgs is set
+    private CompletableFuture<Void> fanOut(Agent[] snapshot, Message msg, List<Message> msgs) {
+        Executor pool = deliveryPool;
+        CompletableFuture<?>[] parts = new CompletableFuture<?>[snapshot.length];
+        for (int i = 0; i < snapshot.length; i++) {
+            Agent agent = snapshot[i];
+            parts[i] = msgs == null
+                    ? CompletableFuture.runAsync(() -> agent.callback(this, msg), pool)
+                    : CompletableFuture.runAsync(() -> agent.callbackBatch(this, msgs), pool);
+        }
+        return CompletableFuture.allOf(parts);
+    }
+
+    // On a partitioned topic, passes the message on to the partition its key maps to
+    private void route(Message msg) {
+        Topic[] parts = partitions;
+        if (parts != null) {
+            parts[partitionOf(msg, parts.length)].publish(msg);
+        }
+    }
+
+    // Splits a burst by partition, keeping the order of messages within each partition
+    private void publishPartitioned(Topic[] parts, List<Message> msgs) {
+        List<List<Message>> split = new ArrayList<>(parts.length);
+        for (int i = 0; i < parts.length; i++) {
+            split.add(new ArrayList<>());
+        }
+        for (Message m : msgs) {
+            split.get(partitionOf(m, parts.length)).add(m);
+        }
+        for (int i = 0; i < parts.length; i++) {
+            parts[i].publishBatch(split.get(i));
         }
     }
 
+    // Same key -> same partition; unkeyed messages are spread round robin and have no order guarantee
+    private int partitionOf(Message msg, int n) {
+        if (msg.key == null) {
+            return Math.floorMod(roundRobin.getAndIncrement(), n);
+        }
+        return Math.floorMod(msg.key.hashCode(), n);
+    }
+
+    // Turns this topic into a logical topic over the given partition topics (done by TopicManager)
+    synchronized void setPartitions(Topic[] parts) {
+        if (partitions != null && partitions.length != parts.length) {
+            throw new IllegalStateException("Topic " + name + " already has " + partitions.length + " partitions");
+        }
+        partitions = parts;
+    }
+
+    // The partition topics, or null if this topic is not partitioned
+    public Topic[] getPartitions() {
+        Topic[] parts = partitions;
+        return parts == null ? null : parts.clone();
+    }
+
+    // Subscriber count above which publish delivers in parallel on the shared pool.
+    // Integer.MAX_VALUE (the default) keeps delivery sequential on the publisher's thread.
+    public void setParallelThreshold(int threshold) {
+        this.parallelThreshold = threshold;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    // Replaces the pool that parallel fan-out runs on, for all topics
+    public static void setDeliveryPool(Executor pool) {
+        deliveryPool = pool;
+    }
+
+    // Starts keeping the last capacity values of this topic. Calling it again keeps the existing history.
+    public synchronized TopicHistory enableHistory(int capacity) {
+        if (history == null) {
+            history = new TopicHistory(capacity);
+        }
+        return history;
+    }
+
+    // Returns the history, or null if it was never enabled
+    public TopicHistory getHistory() {
+        return history;
+    }
+
+    // Delivers the retained values from fromSeq on to the agent so a late subscriber can catch up.
+    // Returns the sequence number to continue from.
+    public long replay(long fromSeq, Agent agent) {
+        TopicHistory h = history;
+        if (h == null) {
+            throw new IllegalStateException("History is not enabled for topic " + name);
+        }
+        return h.replay(this, fromSeq, agent);
+    }
+
     // Add agent as a publisher
     public void addPublisher(Agent publisher) {
-        if (!pubs.contains(publisher)) {
-            pubs.add(publisher);
+        if (add(pubs, publisher) && id >= 0) {
+            TopicManagerSingleton.get().firePublisher(this, publisher, true);
         }
     }
 
     // Remove agent from publishers
     public void removePublisher(Agent unPublisher) {
-        pubs.remove(unPublisher);
+        if (remove(pubs, unPublisher) && id >= 0) {
+            TopicManagerSingleton.get().firePublisher(this, unPublisher, false);
+        }
     }
 
     // Returns the name of the topic
@@ -56,23 +281,121 @@ public class Topic {
         return this.name;
     }
 
-    // Returns the last message that was published on this topic
+    // Returns the id assigned by TopicManager
+    public int getId() {
+        return this.id;
+    }
+
+    // Number of messages published on this topic so far
+    public long getPublishCount() {
+        return published.sum();
+    }
+
+    // Returns the last message that was published on this topic, or recorded by a fused chain
     public Message getLastMessage() {
-        return lastMessage;
+        if (!bypassNewer) {
+            return lastMessage;
+        }
+        long seq;
+        double value;
+        long time;
+        do {
+            seq = bypassSeq;
+            value = bypassValue;
+            time = bypassTime;
+        } while ((seq & 1) != 0 || seq != bypassSeq);
+        return new Message(value, time);
     }
 
-    // Returns the list of subscribers
+    // Sets the last message without delivering it, for CheckpointManager
+    void restoreLastMessage(Message msg) {
+        lastMessage = msg;
+        bypassNewer = false;
+    }
+
+    // Returns a read-only snapshot of the subscribers
     public List<Agent> getSubscribers() {
-        return subs;
+        return Collections.unmodifiableList(Arrays.asList(subs.get()));
     }
 
-    // Returns the list of publishers
+    // Returns a read-only snapshot of the publishers
     public List<Agent> getPublishers() {
-        return pubs;
+        return Collections.unmodifiableList(Arrays.asList(pubs.get()));
     }
 
     // Just prints the name of the topic (optional method)
     public void print(String message) {
         System.out.println(this.name);
     }
+
+    // Copy-on-write insert, retried if another thread changed the array meanwhile.
+    // Returns false if the agent was already there.
+    private static boolean add(AtomicReference<Agent[]> ref, Agent agent) {
+        while (true) {
+            Agent[] cur = ref.get();
+            if (indexOf(cur, agent) >= 0) {
+                return false;
+            }
+            Agent[] next = Arrays.copyOf(cur, cur.length + 1);
+            next[cur.length] = agent;
+            if (ref.compareAndSet(cur, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Puts replacement in the place of old in one step, so every publish delivers to exactly
+     * one of them. If old is not subscribed, replacement is simply added.
+     */
+    void replaceSubscriber(Agent old, Agent replacement) {
+        while (true) {
+            Agent[] cur = subs.get();
+            int i = indexOf(cur, old);
+            if (i < 0) {
+                subscribe(replacement);
+                return;
+            }
+            if (indexOf(cur, replacement) >= 0) {
+                unsubscribe(old); // replacement is already there
+                return;
+            }
+            Agent[] next = cur.clone();
+            next[i] = replacement;
+            if (subs.compareAndSet(cur, next)) {
+                break;
+            }
+        }
+        if (id >= 0) {
+            TopicManagerSingleton.get().fireSubscribed(this, old, false);
+            TopicManagerSingleton.get().fireSubscribed(this, replacement, true);
+        }
+    }
+
+    // Copy-on-write removal, retried if another thread changed the array meanwhile.
+    // Returns false if the agent was not there.
+    private static boolean remove(AtomicReference<Agent[]> ref, Agent agent) {
+        while (true) {
+            Agent[] cur = ref.get();
+            int i = indexOf(cur, agent);
+            if (i < 0) {
+                return false;
+            }
+            Agent[] next = cur.length == 1 ? NONE : new Agent[cur.length - 1];
+            System.arraycopy(cur, 0, next, 0, i);
+            System.arraycopy(cur, i + 1, next, i, cur.length - i - 1);
+            if (ref.compareAndSet(cur, next)) {
+                return true;
+            }
+        }
+    }
+
+    private static int indexOf(Agent[] arr, Agent agent) {
+        for (int i = 0; i < arr.length; i++) {
+            if (arr[i].equals(agent)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
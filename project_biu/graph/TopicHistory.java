@@ -0,0 +1,119 @@
+package test;
+
+import java.util.Arrays;
+
+/**
+ * Fixed-capacity history of the values published on a topic.
+ * Timestamps and values are kept in two primitive ring arrays, so no Message is retained per slot.
+ * Every recorded value gets a sequence number starting at 0; only the last capacity ones are kept.
+ */
+public class TopicHistory {
+
+    private final long[] timestamps;
+    private final double[] values;
+    private long nextSeq = 0; // sequence number the next recorded value will get
+
+    public TopicHistory(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("History capacity must be positive: " + capacity);
+        }
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    // Stores the message and returns its sequence number
+    public long record(Message msg) {
+        return record(msg.asDouble, msg.timestamp);
+    }
+
+    // Stores a value without a Message, e.g. one computed inside a fused chain
+    public synchronized long record(double value, long timestamp) {
+        int slot = (int) (nextSeq % values.length);
+        timestamps[slot] = timestamp;
+        values[slot] = value;
+        return nextSeq++;
+    }
+
+    public int capacity() {
+        return values.length;
+    }
+
+    // Oldest sequence number still held
+    public synchronized long firstSeq() {
+        return Math.max(0, nextSeq - values.length);
+    }
+
+    // Sequence number the next value will get (one past the newest)
+    public synchronized long nextSeq() {
+        return nextSeq;
+    }
+
+    /**
+     * Copies the retained entries with fromSeq <= seq < toSeq into the given arrays.
+     * Sequences that were already overwritten are skipped.
+     *
+     * @return the number of entries copied, at most the length of the shorter array
+     */
+    public synchronized int range(long fromSeq, long toSeq, long[] tsOut, double[] valOut) {
+        long from = Math.max(fromSeq, firstSeq());
+        long to = Math.min(toSeq, nextSeq);
+        int n = 0;
+        int max = Math.min(tsOut.length, valOut.length);
+        for (long seq = from; seq < to && n < max; seq++, n++) {
+            int slot = (int) (seq % values.length);
+            tsOut[n] = timestamps[slot];
+            valOut[n] = values[slot];
+        }
+        return n;
+    }
+
+    // Values with fromSeq <= seq < toSeq that are still retained
+    public synchronized double[] values(long fromSeq, long toSeq) {
+        long from = Math.max(fromSeq, firstSeq());
+        long to = Math.min(toSeq, nextSeq);
+        double[] out = new double[(int) Math.max(0, to - from)];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = values[(int) ((from + i) % values.length)];
+        }
+        return out;
+    }
+
+    // Values whose timestamp lies in [fromMillis, toMillis), oldest first
+    public synchronized double[] valuesBetween(long fromMillis, long toMillis) {
+        long first = firstSeq();
+        double[] tmp = new double[(int) (nextSeq - first)];
+        int n = 0;
+        for (long seq = first; seq < nextSeq; seq++) {
+            int slot = (int) (seq % values.length);
+            if (timestamps[slot] >= fromMillis && timestamps[slot] < toMillis) {
+                tmp[n++] = values[slot];
+            }
+        }
+        return Arrays.copyOf(tmp, n);
+    }
+
+    /**
+     * Delivers every retained value from fromSeq on to the agent, oldest first, as if it were
+     * published on the topic again. Values recorded while the replay runs are not included.
+     *
+     * @return the sequence number to continue from
+     */
+    public long replay(Topic topic, long fromSeq, Agent agent) {
+        long[] ts;
+        double[] vals;
+        long from;
+        int n;
+        synchronized (this) {
+            from = Math.max(fromSeq, firstSeq());
+            int count = (int) Math.max(0, nextSeq - from);
+            ts = new long[count];
+            vals = new double[count];
+            n = range(from, nextSeq, ts, vals);
+        }
+        // Deliver outside the lock so a slow agent does not stall publishers
+        for (int i = 0; i < n; i++) {
+            agent.callback(topic, new Message(vals[i], ts[i]));
+        }
+        return from + n;
+    }
+}
@@ -1,24 +1,140 @@
 package test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class TopicManagerSingleton {
     public static class TopicManager {
         private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
+        private volatile Topic[] byId = new Topic[16]; // Dense id -> topic table, grown on demand
+        private int nextId = 0;
+        private final CopyOnWriteArrayList<TopologyListener> listeners = new CopyOnWriteArrayList<>();
+        private final ThreadLocal<List<Topic>> deferred = new ThreadLocal<>(); // set while a lazy agent is built
 
         private TopicManager() {}
 
+        // Resolves a topic by name, creating it (and assigning its id) on first use.
+        // Agents should call this once when they subscribe and keep the returned handle.
         public Topic getTopic(String name) {
-            return topics.computeIfAbsent(name, Topic::new);
+            return topics.computeIfAbsent(name, this::register);
+        }
+
+        /**
+         * Returns the logical topic name split into partitions name#0 .. name#(n-1).
+         * Publishing on the logical topic routes each message by its key; agents subscribe to
+         * a single partition, so one agent instance per partition processes it in parallel.
+         * Subscribers of the logical topic itself still receive every message, and its last
+         * message, publish count and history cover all partitions.
+         */
+        public Topic getPartitionedTopic(String name, int partitions) {
+            if (partitions <= 0) {
+                throw new IllegalArgumentException("Partition count must be positive: " + partitions);
+            }
+            Topic logical = getTopic(name);
+            Topic[] parts = new Topic[partitions];
+            for (int i = 0; i < partitions; i++) {
+                parts[i] = getTopic(partitionName(name, i));
+            }
+            logical.setPartitions(parts);
+            return logical;
+        }
+
+        public static String partitionName(String name, int partition) {
+            return name + "#" + partition;
+        }
+
+        // Resolves a topic by the id it was given at creation, or null if there is none
+        public Topic getTopic(int id) {
+            Topic[] table = byId;
+            return id >= 0 && id < table.length ? table[id] : null;
         }
 
         public Collection<Topic> getTopics() {
             return topics.values();
         }
 
+        // Number of ids handed out so far - every id is below this value
+        public synchronized int size() {
+            return nextId;
+        }
+
         public void clear() {
-            topics.clear();
+            topics.clear(); // outside the monitor - register() runs under the map's own locks
+            synchronized (this) {
+                byId = new Topic[16];
+                nextId = 0;
+            }
+        }
+
+        public void addTopologyListener(TopologyListener l) {
+            listeners.addIfAbsent(l);
+        }
+
+        public void removeTopologyListener(TopologyListener l) {
+            listeners.remove(l);
+        }
+
+        /**
+         * Until endDeferredSubscribe, subscribe() calls on this thread only record their topic
+         * in the returned list. Used to build an agent without it becoming visible to publishers
+         * before the caller swaps it in.
+         */
+        List<Topic> beginDeferredSubscribe() {
+            List<Topic> topics = new ArrayList<>(2);
+            deferred.set(topics);
+            return topics;
+        }
+
+        void endDeferredSubscribe() {
+            deferred.remove();
+        }
+
+        // True if the subscription was recorded instead of made
+        boolean deferSubscribe(Topic t) {
+            List<Topic> topics = deferred.get();
+            if (topics == null) {
+                return false;
+            }
+            if (!topics.contains(t)) {
+                topics.add(t);
+            }
+            return true;
+        }
+
+        // Called by Topic after its subscriber or publisher set actually changed
+        void fireSubscribed(Topic t, Agent a, boolean added) {
+            for (TopologyListener l : listeners) {
+                if (added) {
+                    l.subscribed(t, a);
+                } else {
+                    l.unsubscribed(t, a);
+                }
+            }
+        }
+
+        void firePublisher(Topic t, Agent a, boolean added) {
+            for (TopologyListener l : listeners) {
+                if (added) {
+                    l.publisherAdded(t, a);
+                } else {
+                    l.publisherRemoved(t, a);
+                }
+            }
+        }
+
+        private synchronized Topic register(String name) {
+            Topic t = new Topic(name, nextId);
+            Topic[] table = byId;
+            if (nextId == table.length) {
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+            table[nextId++] = t;
+            byId = table; // volatile write publishes the new slot
+            return t;
         }
     }
 
@@ -27,4 +143,4 @@ public class TopicManagerSingleton {
     public static TopicManager get() {
         return instance;
     }
-}
\ No newline at end of file
+}
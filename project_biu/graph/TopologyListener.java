@@ -0,0 +1,12 @@
+package test;
+
+/**
+ * Notified by TopicManager whenever an agent joins or leaves a topic,
+ * so that views of the graph can update themselves instead of being rebuilt.
+ */
+public interface TopologyListener {
+    void subscribed(Topic topic, Agent agent);
+    void unsubscribed(Topic topic, Agent agent);
+    void publisherAdded(Topic topic, Agent agent);
+    void publisherRemoved(Topic topic, Agent agent);
+}
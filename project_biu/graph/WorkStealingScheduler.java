@@ -0,0 +1,74 @@
+package test;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Multiplexes all agents onto one work-stealing pool sized to the cores.
+ * An agent is only submitted to the pool while its mailbox has messages, so idle agents
+ * cost no thread at all, and the claim flag in ParallelAgent keeps each agent serial.
+ */
+public class WorkStealingScheduler implements AgentScheduler {
+
+    // Messages an agent may process before it yields its pool thread to other agents
+    private static final int BATCH = 64;
+
+    private static WorkStealingScheduler shared;
+
+    private final ForkJoinPool pool;
+
+    public WorkStealingScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public WorkStealingScheduler(int parallelism) {
+        // asyncMode gives FIFO order for tasks that are never joined, which suits message passing
+        this.pool = new ForkJoinPool(parallelism, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+    }
+
+    // A lazily created scheduler shared by every config that asks for pooled agents
+    public static synchronized WorkStealingScheduler shared() {
+        if (shared == null) {
+            shared = new WorkStealingScheduler();
+        }
+        return shared;
+    }
+
+    @Override
+    public void start(ParallelAgent agent) {
+        // Nothing to set up - the agent runs when its first message arrives
+    }
+
+    @Override
+    public void signal(ParallelAgent agent) {
+        if (agent.tryClaim()) {
+            pool.execute(() -> run(agent));
+        }
+    }
+
+    private void run(ParallelAgent agent) {
+        agent.drain(BATCH);
+        agent.release();
+        // Messages that arrived after drain() saw an empty mailbox would otherwise be stranded
+        if (agent.hasWork()) {
+            signal(agent);
+        }
+    }
+
+    @Override
+    public void stop(ParallelAgent agent) {
+        // Let a batch that is already running finish before the agent is closed under it
+        while (!agent.tryClaim()) {
+            Thread.yield();
+        }
+        agent.getAgent().close();
+    }
+
+    @Override
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public int getPoolSize() {
+        return pool.getPoolSize();
+    }
+}
@@ -0,0 +1,128 @@
+package test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Checks that BinaryConfig.compile and load give back what the text file says: the same
+ * definitions in the same order and the same execution mode, for every mode and for none,
+ * that a compiled file runs like the text one, and that a damaged file is refused.
+ * Run with: java test.BinaryConfigCheck
+ */
+public class BinaryConfigCheck {
+
+    private static final List<String> AGENTS = Arrays.asList(
+            "test.WindowAgent mean count=10", "bcA", "bcMean",
+            "test.PlusAgent", "bcA,bcB", "bcSum",
+            "test.IncAgent", "bcSum", "bcInc",
+            "test.IncAgent", "bcSum", "bcInc"); // a duplicate, told apart by its occurrence
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("binaryConfigCheck");
+        try {
+            roundTrip(dir, null);
+            for (GenericConfig.ExecutionMode mode : GenericConfig.ExecutionMode.values()) {
+                roundTrip(dir, mode);
+            }
+            runsLikeText(dir);
+            damaged(dir);
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path p : files.toArray(Path[]::new)) {
+                    Files.delete(p);
+                }
+            }
+            Files.delete(dir);
+        }
+        System.out.println(failures == 0 ? "all binary config checks passed" : failures + " binary config checks failed");
+    }
+
+    private static void roundTrip(Path dir, GenericConfig.ExecutionMode mode) throws IOException {
+        String name = mode == null ? "no mode" : mode.name();
+        List<String> lines = new ArrayList<>();
+        if (mode != null) {
+            lines.add("#mode=" + mode.name().toLowerCase());
+        }
+        lines.add("# a comment is not a directive");
+        lines.addAll(AGENTS);
+        Path text = dir.resolve("roundTrip.conf");
+        Path bin = dir.resolve("roundTrip" + BinaryConfig.EXTENSION);
+        Files.write(text, lines);
+
+        BinaryConfig.compile(text.toString(), bin.toString());
+        BinaryConfig loaded = BinaryConfig.load(bin.toString());
+        GenericConfig.ParsedFile parsed = GenericConfig.readConfig(text);
+        check(name + " mode", String.valueOf(loaded.getMode()), String.valueOf(mode));
+        check(name + " definitions", loaded.getDefinitions().toString(), parsed.definitions.toString());
+        if (!loaded.getDefinitions().equals(parsed.definitions)) {
+            failures++;
+            System.out.println(name + ": loaded definitions are not equal to the parsed ones");
+        }
+        check(name + " duplicate occurrence", String.valueOf(loaded.getDefinitions().get(3).occurrence), "1");
+        check(name + " args", Arrays.toString(loaded.getDefinitions().get(0).args), "[mean, count=10]");
+        check(name + " subs", Arrays.toString(loaded.getDefinitions().get(1).subs), "[bcA, bcB]");
+    }
+
+    // A compiled config builds the same running graph as its text form
+    private static void runsLikeText(Path dir) throws Exception {
+        Path text = dir.resolve("run.conf");
+        Path bin = dir.resolve("run" + BinaryConfig.EXTENSION);
+        Files.write(text, Arrays.asList("test.PlusAgent", "bcRunA,bcRunB", "bcRunSum",
+                "test.IncAgent", "bcRunSum", "bcRunInc"));
+        BinaryConfig.compile(text.toString(), bin.toString());
+
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(bin.toString());
+        config.create();
+        check("compiled agents", String.valueOf(config.getAgents().size()), "2");
+        TopicManagerSingleton.get().getTopic("bcRunA").publish(new Message(2));
+        TopicManagerSingleton.get().getTopic("bcRunB").publish(new Message(3));
+        Topic inc = TopicManagerSingleton.get().getTopic("bcRunInc");
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (inc.getLastMessage().asDouble != 6 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        check("compiled result", String.valueOf(inc.getLastMessage().asDouble), "6.0");
+        config.close();
+    }
+
+    // A truncated file and a file with an unknown mode code are errors, not an empty config
+    private static void damaged(Path dir) throws IOException {
+        Path bin = dir.resolve("damaged" + BinaryConfig.EXTENSION);
+        BinaryConfig.write(GenericConfig.ExecutionMode.WORK_STEALING, GenericConfig.parseLines(AGENTS).definitions,
+                bin.toString());
+        byte[] whole = Files.readAllBytes(bin);
+
+        Files.write(bin, Arrays.copyOf(whole, whole.length / 2));
+        refused("truncated file", bin);
+
+        byte[] badMode = whole.clone();
+        badMode[8] = 99; // the mode byte follows the magic and the version
+        Files.write(bin, badMode);
+        refused("unknown mode code", bin);
+    }
+
+    private static void refused(String what, Path bin) {
+        try {
+            BinaryConfig.load(bin.toString());
+            failures++;
+            System.out.println(what + ": loaded without an error");
+        } catch (IOException expected) {
+            // refused as it should be
+        }
+    }
+
+    private static void check(String what, String actual, String expected) {
+        if (!actual.equals(expected)) {
+            failures++;
+            System.out.println(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+}
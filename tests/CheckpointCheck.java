@@ -0,0 +1,90 @@
+package test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * Checks that a config with a checkpoint picks up where the previous run stopped: a window
+ * agent keeps its sum and topics keep their last value across a close and a fresh create(),
+ * also when the restored agent is a lazy one.
+ * Run with: java test.CheckpointCheck
+ */
+public class CheckpointCheck {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("checkpointCheck");
+        try {
+            Path conf = dir.resolve("window.conf");
+            Files.write(conf, Arrays.asList(
+                    "test.WindowAgent sum count=1000", "cpIn", "cpSum",
+                    "test.IncAgent", "cpSum", "cpInc"));
+            roundTrip(conf, dir.resolve("plain.ckpt"), false);
+            roundTrip(conf, dir.resolve("lazy.ckpt"), true);
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path p : files.toArray(Path[]::new)) {
+                    Files.delete(p);
+                }
+            }
+            Files.delete(dir);
+        }
+        System.out.println(failures == 0 ? "all checkpoint checks passed" : failures + " checkpoint checks failed");
+    }
+
+    private static void roundTrip(Path conf, Path file, boolean lazy) throws Exception {
+        String mode = lazy ? "lazy " : "";
+        GenericConfig first = start(conf, file, lazy);
+        Topic in = TopicManagerSingleton.get().getTopic("cpIn");
+        for (int i = 1; i <= 10; i++) {
+            in.publish(new Message(i));
+        }
+        awaitLast("cpInc", 56);
+        first.close(); // writes the final checkpoint
+        check(mode + "checkpoint written", Files.exists(file) ? 1 : 0, 1);
+
+        // A new process starts with no topics at all
+        TopicManagerSingleton.get().clear();
+        GenericConfig second = start(conf, file, lazy);
+        check(mode + "restored topic", last("cpSum"), 55);
+        check(mode + "restored downstream topic", last("cpInc"), 56);
+        TopicManagerSingleton.get().getTopic("cpIn").publish(new Message(5));
+        awaitLast("cpInc", 61);
+        check(mode + "sum continues", last("cpSum"), 60);
+        check(mode + "downstream continues", last("cpInc"), 61);
+        second.close();
+        TopicManagerSingleton.get().clear();
+    }
+
+    private static GenericConfig start(Path conf, Path file, boolean lazy) {
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(conf.toString());
+        config.setCheckpoint(new CheckpointManager(file.toString()), 60_000);
+        config.setLazyActivation(lazy, 0);
+        config.create();
+        return config;
+    }
+
+    private static double last(String topic) {
+        Message m = TopicManagerSingleton.get().getTopic(topic).getLastMessage();
+        return m == null ? Double.NaN : m.asDouble;
+    }
+
+    // Waits until the topic shows the expected value, or gives up after a while
+    private static void awaitLast(String topic, double expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (last(topic) != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static void check(String what, double actual, double expected) {
+        if (actual != expected) {
+            failures++;
+            System.out.println(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package test;
+
+import java.util.Random;
+
+/**
+ * Compares the message-at-a-time path of PlusAgent with its columnar path
+ * on the same backfill data. Run with: java test.ColumnBenchmark [rows] [rounds]
+ */
+public class ColumnBenchmark {
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        double[] a = new double[rows];
+        double[] b = new double[rows];
+        Random r = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            a[i] = r.nextDouble();
+            b[i] = r.nextDouble();
+        }
+
+        PlusAgent agent = new PlusAgent(new String[]{"benchA", "benchB"}, new String[]{"benchC"});
+        Topic ta = TopicManagerSingleton.get().getTopic("benchA");
+        Topic tb = TopicManagerSingleton.get().getTopic("benchB");
+        double[] sink = {0.0};
+        TopicManagerSingleton.get().getTopic("benchC").subscribe(new Agent() {
+            @Override
+            public String getName() {
+                return "sink";
+            }
+
+            @Override
+            public void reset() {
+            }
+
+            @Override
+            public void callback(String topic, Message msg) {
+                sink[0] += msg.asDouble;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        // Warm up both paths so the JIT has compiled them before we measure
+        for (int i = 0; i < 3; i++) {
+            scalar(ta, tb, a, b);
+            agent.evaluateColumns(a, b);
+        }
+
+        long scalarNanos = 0;
+        long columnNanos = 0;
+        for (int i = 0; i < rounds; i++) {
+            long t0 = System.nanoTime();
+            scalar(ta, tb, a, b);
+            long t1 = System.nanoTime();
+            agent.evaluateColumns(a, b);
+            long t2 = System.nanoTime();
+            scalarNanos += t1 - t0;
+            columnNanos += t2 - t1;
+        }
+
+        System.out.printf("rows=%d rounds=%d%n", rows, rounds);
+        System.out.printf("scalar: %.2f ns/row%n", (double) scalarNanos / rounds / rows);
+        System.out.printf("column: %.2f ns/row%n", (double) columnNanos / rounds / rows);
+        System.out.println("checksum " + sink[0]);
+        agent.close();
+    }
+
+    private static void scalar(Topic ta, Topic tb, double[] a, double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            ta.publish(new Message(a[i]));
+            tb.publish(new Message(b[i]));
+        }
+    }
+}
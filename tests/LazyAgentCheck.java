@@ -0,0 +1,107 @@
+package test;
+
+/**
+ * Checks that a LazyAgent with an idle timeout loses no message and keeps its state while it is
+ * closed and built again under load: several threads publish 1s to a running sum, with pauses
+ * long enough for the agent to go idle, and the sum must come out exact on every scheduler.
+ * Run with: java test.LazyAgentCheck
+ */
+public class LazyAgentCheck {
+
+    private static final int PRODUCERS = 3;
+    private static final int PER_PRODUCER = 3_000;
+    private static final int ROUND = 500;       // each producer pauses after this many messages
+    private static final long IDLE_MILLIS = 3;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        check(ThreadPerAgentScheduler.get());
+        check(WorkStealingScheduler.shared());
+        RingBufferScheduler ring = new RingBufferScheduler(1024);
+        try {
+            check(ring);
+        } finally {
+            ring.shutdown();
+        }
+        System.out.println(failures == 0 ? "all lazy agent checks passed" : failures + " lazy agent checks failed");
+    }
+
+    private static void check(AgentScheduler scheduler) throws Exception {
+        String name = scheduler.getClass().getSimpleName();
+        Topic in = TopicManagerSingleton.get().getTopic("lazyCheck" + name);
+        Topic out = TopicManagerSingleton.get().getTopic("lazyCheck" + name + "Sum");
+        LazyAgent lazy = new LazyAgent(AgentFactory.forName("test.WindowAgent"),
+                new String[]{in.name}, new String[]{out.name}, new String[]{"sum", "count=1000000"},
+                scheduler, IDLE_MILLIS);
+
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            producers[p] = new Thread(() -> {
+                for (int i = 1; i <= PER_PRODUCER; i++) {
+                    in.publish(new Message(1));
+                    if (i % ROUND == 0) {
+                        pause(20); // long enough for the idle check to close the agent
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+        double total = PRODUCERS * PER_PRODUCER;
+        awaitSum(out, total);
+        check(name + " sum", out.getLastMessage().asDouble, total);
+        if (lazy.getActivationCount() < 2) {
+            failures++;
+            System.out.println(name + ": the agent was never closed for being idle, activations "
+                    + lazy.getActivationCount());
+        }
+
+        // Once closed again, the next message must build it on top of the saved sum
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (lazy.isActive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        check(name + " idle after load", lazy.isActive() ? 1 : 0, 0);
+        int before = lazy.getActivationCount();
+        in.publish(new Message(1));
+        awaitSum(out, total + 1);
+        check(name + " sum after reactivation", out.getLastMessage().asDouble, total + 1);
+        // At least once more: with so short an idle time it may even retire again before the
+        // message reaches it, which parks the message and builds the agent once more
+        if (lazy.getActivationCount() <= before) {
+            failures++;
+            System.out.println(name + ": the message did not bring the agent back");
+        }
+        lazy.close();
+    }
+
+    // Waits until the sum reaches the expected value, or gives up after a while
+    private static void awaitSum(Topic out, double expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            Message last = out.getLastMessage();
+            if (last != null && last.asDouble >= expected) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void check(String what, double actual, double expected) {
+        if (actual != expected) {
+            failures++;
+            System.out.println(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Checks that creating a config again from a changed file only touches what changed: agents
+ * whose lines stayed are the same running instances with their state, agents whose lines are
+ * gone are closed and unsubscribed, and new lines get new agents.
+ * Run with: java test.ReloadCheck
+ */
+public class ReloadCheck {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("reloadCheck");
+        try {
+            Path before = dir.resolve("before.conf");
+            Path after = dir.resolve("after.conf");
+            Files.write(before, Arrays.asList(
+                    "test.WindowAgent sum count=1000", "rlA", "rlSum",
+                    "test.IncAgent", "rlSum", "rlInc",
+                    "test.IncAgent", "rlB", "rlOld"));
+            Files.write(after, Arrays.asList(
+                    "test.WindowAgent sum count=1000", "rlA", "rlSum",
+                    "test.IncAgent", "rlSum", "rlInc",
+                    "test.IncAgent", "rlC", "rlNew"));
+            reload(before, after);
+        } finally {
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path p : files.toArray(Path[]::new)) {
+                    Files.delete(p);
+                }
+            }
+            Files.delete(dir);
+        }
+        System.out.println(failures == 0 ? "all reload checks passed" : failures + " reload checks failed");
+    }
+
+    private static void reload(Path before, Path after) throws InterruptedException {
+        int threads = GenericConfig.activeThreadCount();
+        GenericConfig config = new GenericConfig();
+        config.setConfFile(before.toString());
+        config.create();
+        List<Agent> first = config.getAgents();
+        check("agents before", first.size(), 3);
+        check("threads before", GenericConfig.activeThreadCount() - threads, 3);
+
+        Topic a = TopicManagerSingleton.get().getTopic("rlA");
+        a.publish(new Message(4));
+        awaitLast("rlInc", 5);
+
+        config.setConfFile(after.toString());
+        config.create();
+        List<Agent> second = config.getAgents();
+        check("agents after", second.size(), 3);
+
+        Set<Agent> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        kept.addAll(first);
+        kept.retainAll(second);
+        check("kept instances", kept.size(), 2);
+        List<Agent> removed = new ArrayList<>(first);
+        removed.removeAll(kept);
+        check("removed instances", removed.size(), 1);
+        Topic oldIn = TopicManagerSingleton.get().getTopic("rlB");
+        Topic oldOut = TopicManagerSingleton.get().getTopic("rlOld");
+        for (Agent r : removed) {
+            check("removed agent unsubscribed", oldIn.getSubscribers().contains(r) ? 1 : 0, 0);
+            check("removed agent has no publisher entry", oldOut.getPublishers().contains(r) ? 1 : 0, 0);
+        }
+        // The removed agent's thread ended and the new agent got one
+        awaitThreads(threads + 3);
+        check("threads after", GenericConfig.activeThreadCount() - threads, 3);
+
+        // The kept window agent still holds 4; the removed one no longer reacts
+        a.publish(new Message(6));
+        awaitLast("rlInc", 11);
+        check("kept state", TopicManagerSingleton.get().getTopic("rlSum").getLastMessage().asDouble, 10);
+        oldIn.publish(new Message(1));
+        TopicManagerSingleton.get().getTopic("rlC").publish(new Message(1));
+        awaitLast("rlNew", 2);
+        check("new agent runs", TopicManagerSingleton.get().getTopic("rlNew").getLastMessage().asDouble, 2);
+        check("removed agent silent", oldOut.getPublishCount(), 0);
+
+        config.close();
+        awaitThreads(threads);
+        check("threads after close", GenericConfig.activeThreadCount() - threads, 0);
+    }
+
+    // Waits until the topic shows the expected value, or gives up after a while
+    private static void awaitLast(String topic, double expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            Message m = TopicManagerSingleton.get().getTopic(topic).getLastMessage();
+            if (m != null && m.asDouble == expected) {
+                return;
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitThreads(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (GenericConfig.activeThreadCount() != expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static void check(String what, double actual, double expected) {
+        if (actual != expected) {
+            failures++;
+            System.out.println(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+}
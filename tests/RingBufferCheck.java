@@ -0,0 +1,175 @@
+package test;
+
+import java.util.Arrays;
+
+/**
+ * Checks RingBufferScheduler with several publishing threads and a ring small enough to fill up:
+ * every message is processed, in publish order per producer, also the ones an agent on the loop
+ * publishes into a full ring, and agents close from a thread other than the loop.
+ * Run with: java test.RingBufferCheck
+ */
+public class RingBufferCheck {
+
+    private static final int PRODUCERS = 4;
+    private static final int PER_PRODUCER = 5_000;
+    private static final int FAN_OUT = 4; // messages the relay publishes for each one it receives
+    private static final int STRIDE = 1_000_000;
+
+    private static int failures = 0;
+
+    public static void main(String[] args) throws InterruptedException {
+        RingBufferScheduler ring = new RingBufferScheduler(8);
+        try {
+            inOrder(ring);
+            closeWhilePublishing(ring);
+        } finally {
+            ring.shutdown();
+        }
+        System.out.println(failures == 0 ? "all ring buffer checks passed" : failures + " ring buffer checks failed");
+    }
+
+    // Producer p publishes p * STRIDE + i; the relay runs on the loop and publishes FAN_OUT
+    // consecutive values for each, so the sink must see every producer's values one by one
+    private static void inOrder(RingBufferScheduler ring) throws InterruptedException {
+        Topic in = TopicManagerSingleton.get().getTopic("ringCheckIn");
+        Topic mid = TopicManagerSingleton.get().getTopic("ringCheckMid");
+        Recorder relay = new Recorder("relay", in, mid, STRIDE);
+        Recorder sink = new Recorder("sink", mid, null, (long) STRIDE * FAN_OUT);
+        ParallelAgent relayPa = new ParallelAgent(relay, 10, ParallelAgent.OverflowPolicy.BLOCK, ring);
+        ParallelAgent sinkPa = new ParallelAgent(sink, 10, ParallelAgent.OverflowPolicy.BLOCK, ring);
+
+        Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            int base = p * STRIDE;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < PER_PRODUCER; i++) {
+                    in.publish(new Message(base + i));
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread t : producers) {
+            t.join();
+        }
+        long expected = (long) PRODUCERS * PER_PRODUCER * FAN_OUT;
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (sink.count < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        check("relay received", relay.count, (long) PRODUCERS * PER_PRODUCER);
+        check("sink received", sink.count, expected);
+        check("relay out of order", relay.outOfOrder, 0);
+        check("sink out of order", sink.outOfOrder, 0);
+        if (ring.getSpilledCount() == 0) {
+            failures++;
+            System.out.println("the relay never published into a full ring, the overflow queue went untested");
+        }
+
+        // stop() runs the close on the loop and waits for it from here
+        if (!closeOffLoop(relayPa) || !closeOffLoop(sinkPa)) {
+            failures++;
+            System.out.println("close from outside the loop did not return");
+        }
+        check("relay closed", relay.closed ? 1 : 0, 1);
+        check("sink closed", sink.closed ? 1 : 0, 1);
+    }
+
+    // Closing while producers still publish must return and stop the agent for good
+    private static void closeWhilePublishing(RingBufferScheduler ring) throws InterruptedException {
+        Topic in = TopicManagerSingleton.get().getTopic("ringCheckBusy");
+        Recorder agent = new Recorder("busy", in, null, STRIDE);
+        ParallelAgent pa = new ParallelAgent(agent, 10, ParallelAgent.OverflowPolicy.BLOCK, ring);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < PER_PRODUCER * 10; i++) {
+                in.publish(new Message(i));
+            }
+        });
+        producer.start();
+        while (agent.count < 100) {
+            Thread.sleep(1);
+        }
+        if (!closeOffLoop(pa)) {
+            failures++;
+            System.out.println("close while publishing did not return");
+        }
+        check("busy closed", agent.closed ? 1 : 0, 1);
+        producer.join();
+        check("busy callbacks after close", agent.afterClose, 0);
+        check("busy out of order", agent.outOfOrder, 0);
+    }
+
+    // Closes the agent from a fresh thread; false if that did not finish in time
+    private static boolean closeOffLoop(ParallelAgent pa) throws InterruptedException {
+        Thread closer = new Thread(pa::close);
+        closer.start();
+        closer.join(10_000);
+        return !closer.isAlive();
+    }
+
+    // Counts what it receives and checks that each producer's values, value / stride, arrive one
+    // after another; with an output it publishes FAN_OUT values for each one it receives
+    private static final class Recorder implements Agent {
+        private final String name;
+        private final Topic out;
+        private final long stride;
+        private final long[] last = new long[PRODUCERS];
+        volatile long count;
+        long outOfOrder;
+        long afterClose;
+        volatile boolean closed;
+
+        Recorder(String name, Topic in, Topic out, long stride) {
+            this.name = name;
+            this.out = out;
+            this.stride = stride;
+            Arrays.fill(last, -1);
+            in.subscribe(this);
+            if (out != null) {
+                out.addPublisher(this);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            if (closed) {
+                afterClose++;
+                return;
+            }
+            long v = (long) msg.asDouble;
+            int p = (int) (v / stride);
+            long i = v % stride;
+            if (i != last[p] + 1) {
+                outOfOrder++;
+            }
+            last[p] = i;
+            if (out != null) {
+                for (int k = 0; k < FAN_OUT; k++) {
+                    out.publish(new Message((double) (p * stride * FAN_OUT + i * FAN_OUT + k)));
+                }
+            }
+            count++;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static void check(String what, double actual, double expected) {
+        if (actual != expected) {
+            failures++;
+            System.out.println(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package test;
+
+/**
+ * Checks SlidingWindow count and time windows: statistics, eviction, min/max and NaN inputs.
+ * Run with: java test.WindowCheck
+ */
+public class WindowCheck {
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        countWindow();
+        timeWindow();
+        nanInput();
+        agentSkipsNaN();
+        System.out.println(failures == 0 ? "all window checks passed" : failures + " window checks failed");
+    }
+
+    private static void countWindow() {
+        SlidingWindow w = SlidingWindow.ofCount(3);
+        check("empty mean", w.mean(), Double.NaN);
+        check("empty min", w.min(), Double.NaN);
+
+        long t = 0;
+        for (double v : new double[]{4, 1, 7}) {
+            w.add(v, t++);
+        }
+        check("count size", w.size(), 3);
+        check("count sum", w.sum(), 12);
+        check("count mean", w.mean(), 4);
+        check("count variance", w.variance(), 6);
+        check("count min", w.min(), 1);
+        check("count max", w.max(), 7);
+
+        // 4 and then 1 leave the window, so the min has to move on
+        w.add(5, t++);
+        check("evict sum", w.sum(), 13);
+        check("evict min", w.min(), 1);
+        w.add(6, t++);
+        check("evict size", w.size(), 3);
+        check("evict sum 2", w.sum(), 18);
+        check("evict min 2", w.min(), 5);
+        check("evict max 2", w.max(), 7);
+        w.add(2, t++);
+        check("evict max 3", w.max(), 6);
+        check("evict min 3", w.min(), 2);
+        check("evict mean 3", w.mean(), 13.0 / 3);
+    }
+
+    private static void timeWindow() {
+        SlidingWindow w = SlidingWindow.ofTime(100);
+        w.add(1, 0);
+        w.add(9, 50);
+        w.add(3, 90);
+        check("time size", w.size(), 3);
+        check("time max", w.max(), 9);
+
+        // At t=120 the value from t=0 is older than 100ms
+        w.add(4, 120);
+        check("time expire size", w.size(), 3);
+        check("time expire sum", w.sum(), 16);
+        check("time expire min", w.min(), 3);
+
+        // At t=200 everything before t=100 has expired, leaving 4 and the new value
+        w.add(2, 200);
+        check("time expire 2 size", w.size(), 2);
+        check("time expire 2 sum", w.sum(), 6);
+        check("time expire 2 max", w.max(), 4);
+        check("time expire 2 min", w.min(), 2);
+
+        // Grows past its initial capacity of 64
+        SlidingWindow g = SlidingWindow.ofTime(1_000);
+        for (int i = 0; i < 200; i++) {
+            g.add(i, i);
+        }
+        check("time grow size", g.size(), 200);
+        check("time grow min", g.min(), 0);
+        check("time grow max", g.max(), 199);
+        check("time grow mean", g.mean(), 99.5);
+    }
+
+    private static void nanInput() {
+        SlidingWindow w = SlidingWindow.ofCount(3);
+        long t = 0;
+        for (double v : new double[]{1, Double.NaN, 2, 3, 4, 5}) {
+            w.add(v, t++);
+        }
+        check("nan size", w.size(), 3);
+        check("nan sum", w.sum(), 12);
+        check("nan mean", w.mean(), 4);
+        check("nan variance", w.variance(), 2.0 / 3);
+        check("nan min", w.min(), 3);
+        check("nan max", w.max(), 5);
+    }
+
+    private static void agentSkipsNaN() {
+        WindowAgent agent = new WindowAgent(new String[]{"windowCheckIn"}, new String[]{"windowCheckOut"},
+                new String[]{"sum", "count=2"});
+        Topic in = TopicManagerSingleton.get().getTopic("windowCheckIn");
+        Topic out = TopicManagerSingleton.get().getTopic("windowCheckOut");
+        in.publish(new Message(1));
+        in.publish(new Message("not a number"));
+        check("agent skips nan", out.getPublishCount(), 1);
+        in.publish(new Message(2));
+        check("agent sum", out.getLastMessage().asDouble, 3);
+        agent.close();
+    }
+
+    private static void check(String what, double actual, double expected) {
+        boolean ok = Double.isNaN(expected) ? Double.isNaN(actual) : Math.abs(actual - expected) < 1e-9;
+        if (!ok) {
+            failures++;
+            System.out.println(what + ": expected " + expected + " but was " + actual);
+        }
+    }
+}